@@ -0,0 +1,53 @@
+package com.rolandoislas.twitched.android;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.rolandoislas.twitched.android.task.CoalescingQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the task scheduler and cast queue shared by the whole app. Scheduler callbacks run on the main thread.
+ */
+class AppScheduler {
+    // One full IP sweep plus room for searches, health checks and casts
+    private static final int MAX_THREADS = 40;
+    // Maps to Android's background thread priority so searches and sweeps never compete with drawing
+    private static final int THREAD_PRIORITY = Thread.NORM_PRIORITY - 1;
+    // One launch per Roku at a time, enough for a large cast group
+    private static final int CAST_THREADS = 16;
+    private static TaskScheduler instance;
+    private static CoalescingQueue castQueue;
+
+    private AppScheduler() {
+    }
+
+    /**
+     * Get the shared scheduler
+     * @return scheduler
+     */
+    static synchronized TaskScheduler getInstance() {
+        if (instance == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            instance = new TaskScheduler("Task", MAX_THREADS, THREAD_PRIORITY, new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    handler.post(runnable);
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * Get the shared cast queue. Launches are keyed by Roku ip so each Roku handles one at a time and only the newest
+     * waiting cast runs.
+     * @return cast queue
+     */
+    static synchronized CoalescingQueue getCastQueue() {
+        if (castQueue == null)
+            castQueue = new CoalescingQueue("Cast", CAST_THREADS);
+        return castQueue;
+    }
+}
@@ -1,144 +1,286 @@
 package com.rolandoislas.twitched.android;
 
 import android.content.Intent;
-import android.os.Handler;
-import android.support.annotation.Nullable;
+import android.content.SharedPreferences;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
-import com.goebl.david.Response;
-import com.goebl.david.Webb;
-import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.roku.CastResult;
+import com.rolandoislas.twitched.android.roku.LaunchResult;
+import com.rolandoislas.twitched.android.roku.RokuCaster;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.rolandoislas.twitched.android.twitch.CastTarget;
+import com.rolandoislas.twitched.android.twitch.TwitchUrlResolver;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.rolandoislas.twitched.android.MainActivity.PREF_MAIN;
 import static com.rolandoislas.twitched.android.MainActivity.ROKU_APP_ID;
+import static com.rolandoislas.twitched.android.MainActivity.ROKU_GROUP;
 import static com.rolandoislas.twitched.android.MainActivity.ROKU_IP;
+import static com.rolandoislas.twitched.android.MainActivity.ROKU_SERIAL;
 
 public class CastActivity extends AppCompatActivity {
 
-    private static final String APP_ID_TWITCHED = "206723";
-    private static final String APP_ID_TWITCHED_ZERO = "223126";
     private Logger logger;
-    private Webb webb;
-    private Handler handler;
+    private DiscoveryManager discovery;
+    private RokuCaster caster;
+    private String ip;
+    private String serial;
+    private Set<String> group;
+    private String preferredAppId;
+    private int activeCasts;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long start = System.nanoTime();
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_cast);
         // Fields
         logger = Logger.getLogger("Twitched Cast");
-        webb = Webb.create();
-        handler = new Handler(getMainLooper());
-        // Parse launch data
-        Intent launcher = getIntent();
+        // Connect to the Rokus while the view is created and the shared text is parsed
+        SharedPreferences preferences = getSharedPreferences(PREF_MAIN, MODE_PRIVATE);
+        discovery = DiscoveryManager.getInstance(this);
+        caster = discovery.getCaster();
+        serial = preferences.getString(ROKU_SERIAL, "");
+        ip = preferences.getString(ROKU_IP, "");
+        group = new LinkedHashSet<>(preferences.getStringSet(ROKU_GROUP, Collections.<String>emptySet()));
+        int appIdIndex = preferences.getInt(ROKU_APP_ID, 0);
+        preferredAppId = ChannelCache.APP_IDS.get(appIdIndex < ChannelCache.APP_IDS.size() ? appIdIndex : 0);
+        discovery.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                if (group.isEmpty()) {
+                    caster.warm(Collections.singleton(discovery.resolveIp(serial, ip)));
+                    return;
+                }
+                List<String> ips = new ArrayList<>();
+                for (String member : group) {
+                    String memberIp = discovery.resolveGroupMember(member);
+                    if (memberIp != null)
+                        ips.add(memberIp);
+                }
+                caster.warm(ips);
+            }
+        });
+        setContentView(R.layout.activity_cast);
+        handleIntent(getIntent(), start);
+    }
+
+    /**
+     * Shares made while a cast is still running arrive here because the activity is single task. They are queued
+     * behind the running cast.
+     * @param intent share intent
+     */
+    @Override
+    protected void onNewIntent(Intent intent) {
+        long start = System.nanoTime();
+        super.onNewIntent(intent);
+        setIntent(intent);
+        handleIntent(intent, start);
+    }
+
+    /**
+     * Cast the Twitch link in a share intent
+     * @param launcher share intent
+     * @param start time the intent reached the activity
+     */
+    private void handleIntent(Intent launcher, long start) {
         if (launcher == null) {
             logger.info("Launched without an intent");
-            exit();
+            exitIfIdle();
             return;
         }
         String extraText = launcher.getStringExtra(Intent.EXTRA_TEXT);
         if (extraText == null) {
             logger.info("No extra text supplied");
-            exit();
+            exitIfIdle();
             return;
         }
         logger.info(String.format("Data: %s", extraText));
-        Pattern twitchChannelUrl = Pattern.compile(".*https?://.*twitch.tv/([^?#&]+).*");
-        Pattern twitchVideoUrl = Pattern.compile(".*https?://.*twitch.tv/(?:[^?#&/]+)/v/([^?#&]+)(?:.*t=(\\d+))?.*");
-        Matcher channelMatcher = twitchChannelUrl.matcher(extraText);
-        Matcher videoMatcher = twitchVideoUrl.matcher(extraText);
-        if (!channelMatcher.matches() && !videoMatcher.matches()) {
-            logger.info(String.format("Extra text does not contain a Twitch URL: %s", extraText));
-            exit();
+        CastTarget target = TwitchUrlResolver.resolve(extraText);
+        if (target != null) {
+            logger.info(String.format("Target: %s", target));
+            cast(target, start);
             return;
         }
-        if (videoMatcher.matches()) {
-            String id = videoMatcher.group(1);
-            String time = videoMatcher.group(2);
-            cast(null, id, time);
-        }
-        else if (channelMatcher.matches()) {
-            String userName = channelMatcher.group(1);
-            cast(userName, null, null);
-        }
+        logger.info(String.format("Extra text does not contain a Twitch URL: %s", extraText));
+        exitIfIdle();
+    }
+
+    /**
+     * Cast to the roku or to every roku in the saved group. On a cold start the cast waits for the saved devices to
+     * load so the roku is followed to its current ip by serial.
+     * @param target stream, video or clip to play
+     * @param start time the share reached the activity
+     */
+    private void cast(final CastTarget target, final long start) {
+        activeCasts++;
+        discovery.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing())
+                    return;
+                if (group.isEmpty())
+                    castToRoku(target, start);
+                else
+                    castToGroup(target, start);
+            }
+        });
     }
 
     /**
-     * Cast to the roku
-     * @param userName twitch channel name
-     * @param videoId video id
-     * @param time
+     * Cast to the saved roku. The launch is queued behind any cast still running on the same roku, replacing a cast
+     * that is waiting there.
+     * @param target stream, video or clip to play
+     * @param start time the share reached the activity
      */
-    private void cast(@Nullable final String userName, @Nullable final String videoId, @Nullable final String time) {
-        final String ip = getSharedPreferences(PREF_MAIN, MODE_PRIVATE).getString(ROKU_IP, "");
-        final int appIdIndex = getSharedPreferences(PREF_MAIN, MODE_PRIVATE).getInt(ROKU_APP_ID, 0);
+    private void castToRoku(final CastTarget target, final long start) {
         if (ip.isEmpty()) {
-            exit(R.string.message_no_ip_set);
+            activeCasts--;
+            exitIfIdle(R.string.message_no_ip_set);
             return;
         }
-        Thread castThread = new Thread(new Runnable() {
+        // Prefer the ip discovery last saw the saved Roku at in case its DHCP lease changed
+        ip = discovery.resolveIp(serial, ip);
+        caster.cast(this, ip, serial, getAppId(serial, ip), target, start, new TaskScheduler.Callback<CastResult>() {
             @Override
-            public void run() {
-                String contentId;
-                String mediaType;
-                if (userName != null) {
-                    contentId = String.format("twitch_stream_%s", userName);
-                    mediaType = "live";
-                }
-                else if (videoId != null) {
-                    contentId = String.format("twitch_video_%s", videoId);
-                    mediaType = "special";
-                }
-                else
-                    throw new RuntimeException("Invalid arguments");
-                // Post to Roku
-                try {
-                    Response<Void> response = webb.post(String.format(
-                            "http://%s:8060/launch/%s?contentId=%s&mediaType=%s&time=%s",
-                            ip,
-                            appIdIndex == 0 ? APP_ID_TWITCHED : APP_ID_TWITCHED_ZERO,
-                            contentId,
-                            mediaType,
-                            time == null ? "0" : time
-                    ))
-                            .body("")
-                            .retry(1, false)
-                            .ensureSuccess()
-                            .asVoid();
-                }
-                catch (WebbException e) {
-                    e.printStackTrace();
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            exit(R.string.message_cast_fail);
-                        }
-                    });
+            public void onSuccess(CastResult result) {
+                // Save the ip that accepted the launch in case the Roku moved
+                ip = result.getIp();
+                getSharedPreferences(PREF_MAIN, MODE_PRIVATE).edit().putString(ROKU_IP, ip).apply();
+                MainActivity.showMessage(getBaseContext(), result.isConfirmed() ? R.string.message_cast_success :
+                        R.string.message_cast_unconfirmed, true);
+                finishCast(false);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (error instanceof CancellationException) {
+                    logger.info(String.format("Cast of %s replaced by a newer share", target));
+                    Metrics.CAST_DROPPED.increment();
+                    finishCast(false);
                     return;
                 }
-                // Cast was successful
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        MainActivity.showMessage(getBaseContext(), R.string.message_cast_success, true);
-                        finish();
-                    }
-                });
+                error.printStackTrace();
+                Metrics.CAST_FAILURES.increment();
+                MainActivity.showMessage(getBaseContext(), R.string.message_cast_fail, true);
+                finishCast(true);
             }
         });
-        castThread.setDaemon(true);
-        castThread.setName("Cast");
-        castThread.start();
+    }
+
+    /**
+     * Count down a finished cast and leave once none are left
+     * @param failed open the main activity instead of only finishing
+     */
+    private void finishCast(boolean failed) {
+        activeCasts--;
+        if (activeCasts > 0)
+            return;
+        if (failed)
+            exit();
+        else
+            finish();
+    }
+
+    /**
+     * Cast to every roku in the saved group at once and show a summary of which ones accepted the launch. Members are
+     * followed to their current ip by serial. Each launch is queued per roku, so a roku still busy with an earlier
+     * cast gets this one next.
+     * @param target stream, video or clip to play
+     * @param start time the share reached the activity
+     */
+    private void castToGroup(final CastTarget target, final long start) {
+        Map<String, String> appIds = new LinkedHashMap<>();
+        final List<String> unknown = new ArrayList<>();
+        for (String member : group) {
+            String memberIp = discovery.resolveGroupMember(member);
+            if (memberIp == null)
+                unknown.add(member);
+            else
+                appIds.put(memberIp, getAppId(member.equals(memberIp) ? "" : member, memberIp));
+        }
+        caster.castToGroup(this, appIds, target, start, new TaskScheduler.Callback<List<LaunchResult>>() {
+            @Override
+            public void onSuccess(List<LaunchResult> launched) {
+                // Members no known device has the serial of are reported under their serial
+                List<LaunchResult> results = new ArrayList<>(launched);
+                for (String member : unknown)
+                    results.add(new LaunchResult(member, false, 0, "Roku not found"));
+                int succeeded = 0;
+                for (LaunchResult result : results) {
+                    if (result.isSuccess())
+                        succeeded++;
+                }
+                MainActivity.showMessage(getBaseContext(), createGroupSummary(results, succeeded), true);
+                finishCast(succeeded == 0);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+                MainActivity.showMessage(getBaseContext(), R.string.message_cast_fail, true);
+                finishCast(true);
+            }
+        });
+    }
+
+    /**
+     * Describe a group cast, naming each roku that failed
+     * @param results launch results
+     * @param succeeded number of successful launches
+     * @return summary message
+     */
+    private String createGroupSummary(List<LaunchResult> results, int succeeded) {
+        StringBuilder summary = new StringBuilder(getString(R.string.message_cast_group_result, succeeded,
+                results.size()));
+        for (LaunchResult result : results) {
+            if (result.isSuccess())
+                continue;
+            RokuDevice device = discovery.getRegistry().findByIp(result.getIp());
+            if (device == null)
+                device = discovery.getRegistry().findBySerial(result.getIp());
+            summary.append('\n').append(getString(R.string.message_cast_group_failed,
+                    device == null || device.getName().isEmpty() ? result.getIp() : device.getName()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Get the Twitched channel installed on a roku. Only the cached app list is read, so this never delays a cast.
+     * @param rokuSerial roku serial or empty if unknown
+     * @param rokuIp roku ip
+     * @return app id
+     */
+    private String getAppId(String rokuSerial, String rokuIp) {
+        return discovery.getAppId(rokuSerial, rokuIp, preferredAppId);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        discovery.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        discovery.stop();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-
+        AppScheduler.getInstance().cancelAll(this);
     }
 
     /**
@@ -159,4 +301,23 @@ public class CastActivity extends AppCompatActivity {
     private void exit() {
         exit(-1);
     }
+
+    /**
+     * Start the main activity unless a cast is still running
+     * @param reasonMessageId message to show
+     */
+    private void exitIfIdle(int reasonMessageId) {
+        if (activeCasts == 0)
+            exit(reasonMessageId);
+        else
+            MainActivity.showMessage(getBaseContext(), reasonMessageId, true);
+    }
+
+    /**
+     * Start the main activity with no specified message unless a cast is still running
+     */
+    private void exitIfIdle() {
+        if (activeCasts == 0)
+            exit();
+    }
 }
@@ -0,0 +1,172 @@
+package com.rolandoislas.twitched.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which Twitched channels each Roku has installed, keyed by serial, so a cast can launch the right one
+ * without a lookup. Entries are held in memory and persisted, and are revalidated against /query/apps once they are
+ * older than the TTL. Entries are encoded to and from plain strings so they can be tested without SharedPreferences.
+ */
+class ChannelCache {
+    static final String APP_ID_TWITCHED = "206723";
+    static final String APP_ID_TWITCHED_ZERO = "223126";
+    // In the order of the app dropdown
+    static final List<String> APP_IDS = Collections.unmodifiableList(Arrays.asList(APP_ID_TWITCHED,
+            APP_ID_TWITCHED_ZERO));
+    private static final String PREF_CHANNELS = "preferences_channels";
+    static final long TTL = TimeUnit.HOURS.toMillis(6);
+    private static final String KEY_INSTALLED = "installed";
+    private static final String KEY_CHECKED = "checked";
+    private final SharedPreferences preferences;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * Twitched channels installed on one device
+     */
+    static class Entry {
+        private final List<String> installed;
+        private final long checked;
+
+        Entry(List<String> installed, long checked) {
+            this.installed = installed;
+            this.checked = checked;
+        }
+
+        /**
+         * @return installed Twitched app ids in dropdown order
+         */
+        List<String> getInstalled() {
+            return installed;
+        }
+
+        /**
+         * @param now epoch millis
+         * @return true if the entry was checked longer than the TTL ago
+         */
+        boolean isExpired(long now) {
+            return now - checked > TTL;
+        }
+    }
+
+    ChannelCache(Context context) {
+        preferences = context.getSharedPreferences(PREF_CHANNELS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Read the stored entries unless they were read already. Every method that may run off the main thread calls
+     * this; {@link #getAppId(String, String)} does not, so call it early on a background thread.
+     */
+    void load() {
+        if (loaded)
+            return;
+        synchronized (this) {
+            if (loaded)
+                return;
+            for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+                Entry entry = decode(stored.getValue());
+                if (entry != null)
+                    entries.put(stored.getKey(), entry);
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Get the app id to launch on a device. Never reads the preferences, so it is safe on the main thread.
+     * @param serial device serial
+     * @param preferredAppId app id chosen in the dropdown
+     * @return the preferred app id if it is installed, nothing is known or the entries are not loaded yet, otherwise
+     * the installed one
+     */
+    String getAppId(String serial, String preferredAppId) {
+        if (!loaded)
+            return preferredAppId;
+        Entry entry = entries.get(serial);
+        if (entry == null || entry.installed.isEmpty() || entry.installed.contains(preferredAppId))
+            return preferredAppId;
+        return entry.installed.get(0);
+    }
+
+    /**
+     * @param serial device serial
+     * @return true if the device has not been checked within the TTL
+     */
+    boolean needsRevalidation(String serial) {
+        load();
+        Entry entry = entries.get(serial);
+        return entry == null || entry.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Store the Twitched channels a device has installed
+     * @param serial device serial
+     * @param installedAppIds installed app ids, ids that are not Twitched channels are ignored
+     */
+    void put(String serial, Collection<String> installedAppIds) {
+        load();
+        List<String> installed = new ArrayList<>();
+        for (String appId : APP_IDS) {
+            if (installedAppIds.contains(appId))
+                installed.add(appId);
+        }
+        Entry entry = new Entry(installed, System.currentTimeMillis());
+        entries.put(serial, entry);
+        String json = encode(entry);
+        if (json != null)
+            preferences.edit().putString(serial, json).apply();
+    }
+
+    /**
+     * Serialize an entry
+     * @param entry entry
+     * @return json string or null if it could not be built
+     */
+    static String encode(Entry entry) {
+        JSONObject json = new JSONObject();
+        try {
+            JSONArray installedJson = new JSONArray();
+            for (String appId : entry.installed)
+                installedJson.put(appId);
+            json.put(KEY_INSTALLED, installedJson);
+            json.put(KEY_CHECKED, entry.checked);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return json.toString();
+    }
+
+    /**
+     * Parse a stored entry
+     * @param value stored json string
+     * @return entry or null if it is invalid
+     */
+    static Entry decode(Object value) {
+        if (!(value instanceof String))
+            return null;
+        try {
+            JSONObject json = new JSONObject((String) value);
+            JSONArray installedJson = json.getJSONArray(KEY_INSTALLED);
+            List<String> installed = new ArrayList<>();
+            for (int index = 0; index < installedJson.length(); index++)
+                installed.add(installedJson.optString(index));
+            return new Entry(installed, json.optLong(KEY_CHECKED));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
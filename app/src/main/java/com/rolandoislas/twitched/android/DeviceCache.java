@@ -0,0 +1,128 @@
+package com.rolandoislas.twitched.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists discovered Rokus keyed by serial so the list can be shown before a search completes. Encoding and expiry
+ * work on plain maps and strings so they can be tested without SharedPreferences.
+ */
+class DeviceCache {
+    private static final String PREF_DEVICES = "preferences_devices";
+    static final long TTL = TimeUnit.DAYS.toMillis(14);
+    private static final String KEY_IP = "ip";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_MODEL = "model";
+    private static final String KEY_NETWORK_TYPE = "network_type";
+    private static final String KEY_POWER_MODE = "power_mode";
+    private static final String KEY_LAST_SEEN = "last_seen";
+    private static final String KEY_LATENCY = "latency";
+    private final SharedPreferences preferences;
+
+    DeviceCache(Context context) {
+        preferences = context.getSharedPreferences(PREF_DEVICES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Load the cached devices, most recently seen first. Entries that have not been seen within the TTL are evicted.
+     * @return devices
+     */
+    List<RokuDevice> load() {
+        List<String> expired = new ArrayList<>();
+        List<RokuDevice> devices = decodeAll(preferences.getAll(), System.currentTimeMillis(), expired);
+        if (!expired.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String serial : expired)
+                editor.remove(serial);
+            editor.apply();
+        }
+        return devices;
+    }
+
+    /**
+     * Add or replace a device
+     * @param device device to store
+     */
+    void put(RokuDevice device) {
+        String json = encode(device);
+        if (json != null)
+            preferences.edit().putString(device.getSerial(), json).apply();
+    }
+
+    /**
+     * Parse stored devices, most recently seen first
+     * @param stored stored values keyed by serial
+     * @param now epoch millis entries are checked against the TTL at
+     * @param expired receives the keys of entries that are invalid or expired
+     * @return valid devices
+     */
+    static List<RokuDevice> decodeAll(Map<String, ?> stored, long now, List<String> expired) {
+        List<RokuDevice> devices = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+            RokuDevice device = decode(entry.getKey(), entry.getValue());
+            if (device == null || now - device.getLastSeen() > TTL)
+                expired.add(entry.getKey());
+            else
+                devices.add(device);
+        }
+        Collections.sort(devices, new Comparator<RokuDevice>() {
+            @Override
+            public int compare(RokuDevice first, RokuDevice second) {
+                return first.getLastSeen() > second.getLastSeen() ? -1 :
+                        first.getLastSeen() == second.getLastSeen() ? 0 : 1;
+            }
+        });
+        return devices;
+    }
+
+    /**
+     * Serialize a device
+     * @param device device
+     * @return json string or null if it could not be built
+     */
+    static String encode(RokuDevice device) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_IP, device.getIp());
+            json.put(KEY_NAME, device.getName());
+            json.put(KEY_MODEL, device.getModel());
+            json.put(KEY_NETWORK_TYPE, device.getNetworkType());
+            json.put(KEY_POWER_MODE, device.getPowerMode());
+            json.put(KEY_LAST_SEEN, device.getLastSeen());
+            json.put(KEY_LATENCY, device.getLatency());
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return json.toString();
+    }
+
+    /**
+     * Parse a stored device
+     * @param serial preference key
+     * @param value stored json string
+     * @return device or null if the entry is invalid
+     */
+    static RokuDevice decode(String serial, Object value) {
+        if (!(value instanceof String))
+            return null;
+        try {
+            JSONObject json = new JSONObject((String) value);
+            return new RokuDevice(serial, json.getString(KEY_IP), json.optString(KEY_NAME),
+                    json.optString(KEY_MODEL), json.optString(KEY_NETWORK_TYPE), json.optString(KEY_POWER_MODE),
+                    json.optLong(KEY_LAST_SEEN), json.optLong(KEY_LATENCY));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
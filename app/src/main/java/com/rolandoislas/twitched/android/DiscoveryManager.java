@@ -0,0 +1,355 @@
+package com.rolandoislas.twitched.android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Patterns;
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.roku.AppListParser;
+import com.rolandoislas.twitched.android.roku.DeviceRegistry;
+import com.rolandoislas.twitched.android.roku.EcpClient;
+import com.rolandoislas.twitched.android.roku.RemoteControl;
+import com.rolandoislas.twitched.android.roku.RokuCaster;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import com.rolandoislas.twitched.android.roku.RokuDiscovery;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application wide Roku discovery and casting on top of the core {@link RokuDiscovery} and {@link RokuCaster}. Follows
+ * SSDP announcements while the app is in use, periodically checks the health of known devices and persists what it
+ * finds. Health checks run less often on battery.
+ */
+class DiscoveryManager {
+
+    /**
+     * Receives the end of a search on the main thread
+     */
+    interface SearchListener {
+        /**
+         * @param found number of Rokus known after the search
+         */
+        void onSearchFinished(int found);
+    }
+
+    private static final long HEALTH_CHECK_INTERVAL_CHARGING = TimeUnit.SECONDS.toMillis(30);
+    private static final long HEALTH_CHECK_INTERVAL_BATTERY = TimeUnit.MINUTES.toMillis(2);
+    private static final long HEALTH_CHECK_INTERVAL_LOW_BATTERY = TimeUnit.MINUTES.toMillis(10);
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final long LINGER = TimeUnit.MINUTES.toMillis(1);
+    private static final String TASK_LOAD = "discovery.load";
+    private static final String TASK_CHANNELS = "discovery.channels.";
+    private static final int CHANNELS_TIMEOUT = 2000;
+    private static DiscoveryManager instance;
+    private final Context context;
+    private final Handler handler;
+    private final TaskScheduler scheduler;
+    private final DeviceRegistry registry;
+    private final DeviceCache deviceCache;
+    private final ChannelCache channelCache;
+    private final RokuDiscovery discovery;
+    private final RokuCaster caster;
+    private final RemoteControl remote;
+    private final WifiManager.MulticastLock multicastLock;
+    private final List<Runnable> afterLoad = new ArrayList<>();
+    private boolean loaded;
+    private SearchListener searchListener;
+    private int clients;
+    private boolean running;
+    private final Runnable healthCheck = new Runnable() {
+        @Override
+        public void run() {
+            // Restarts the SSDP listener if it stopped on a network error
+            discovery.startListening();
+            discovery.checkHealth();
+            handler.postDelayed(this, getHealthCheckInterval());
+        }
+    };
+    private final Runnable shutdown = new Runnable() {
+        @Override
+        public void run() {
+            stopRunning();
+        }
+    };
+
+    private DiscoveryManager(Context context) {
+        this.context = context;
+        handler = new Handler(Looper.getMainLooper());
+        scheduler = AppScheduler.getInstance();
+        registry = new DeviceRegistry();
+        deviceCache = new DeviceCache(context);
+        channelCache = new ChannelCache(context);
+        discovery = new RokuDiscovery(scheduler, EcpClient.getInstance(), registry, new RokuDiscovery.Listener() {
+            @Override
+            public void onDeviceFound(RokuDevice device) {
+                deviceCache.put(device);
+                revalidateChannels(device.getSerial(), device.getIp());
+            }
+
+            @Override
+            public void onDeviceAnswered(RokuDevice device) {
+                revalidateChannels(device.getSerial(), device.getIp());
+            }
+        });
+        caster = new RokuCaster(EcpClient.getInstance(), scheduler, AppScheduler.getCastQueue(), discovery);
+        remote = new RemoteControl(EcpClient.getInstance(), scheduler);
+        WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        multicastLock = wifiManager.createMulticastLock("Twitched SSDP");
+        multicastLock.setReferenceCounted(false);
+        // Show known devices until the first health check confirms them. The caches are read off the main thread and
+        // devices a search found meanwhile are kept.
+        scheduler.submit(this, TASK_LOAD, new Callable<Void>() {
+            @Override
+            public Void call() {
+                registry.addAbsent(deviceCache.load());
+                channelCache.load();
+                return null;
+            }
+        }, new TaskScheduler.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                finishLoad();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+                finishLoad();
+            }
+        });
+    }
+
+    /**
+     * Get the shared discovery manager
+     * @param context any context, the application context is kept
+     * @return discovery manager
+     */
+    static synchronized DiscoveryManager getInstance(Context context) {
+        if (instance == null)
+            instance = new DiscoveryManager(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * @return live registry of known Rokus
+     */
+    DeviceRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return caster that follows devices this manager tracks
+     */
+    RokuCaster getCaster() {
+        return caster;
+    }
+
+    /**
+     * @return remote control for scripting devices after a cast
+     */
+    RemoteControl getRemote() {
+        return remote;
+    }
+
+    /**
+     * Register a visible client. While any client is started the SSDP listener and health checks run. They stop a
+     * short while after the last client stops so switching between activities does not restart them. Must be called
+     * on the main thread.
+     */
+    void start() {
+        clients++;
+        handler.removeCallbacks(shutdown);
+        if (running)
+            return;
+        running = true;
+        multicastLock.acquire();
+        discovery.startListening();
+        handler.post(healthCheck);
+    }
+
+    /**
+     * Unregister a client registered with start. Must be called on the main thread.
+     */
+    void stop() {
+        if (clients == 0)
+            return;
+        clients--;
+        if (clients == 0)
+            handler.postDelayed(shutdown, LINGER);
+    }
+
+    private void stopRunning() {
+        if (!running)
+            return;
+        running = false;
+        handler.removeCallbacks(healthCheck);
+        discovery.stopListening();
+        multicastLock.release();
+    }
+
+    /**
+     * Get how long to wait between health checks. Charging devices check often, low batteries rarely.
+     * @return interval in milliseconds
+     */
+    private long getHealthCheckInterval() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null)
+            return HEALTH_CHECK_INTERVAL_BATTERY;
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0)
+            return HEALTH_CHECK_INTERVAL_CHARGING;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT)
+            return HEALTH_CHECK_INTERVAL_LOW_BATTERY;
+        return HEALTH_CHECK_INTERVAL_BATTERY;
+    }
+
+    /**
+     * Run work that needs the saved devices and channels once they are loaded, right away if they already are.
+     * Work runs on the main thread in the order it was added. Must be called on the main thread.
+     * @param work work to run
+     */
+    void whenLoaded(Runnable work) {
+        if (loaded)
+            work.run();
+        else
+            afterLoad.add(work);
+    }
+
+    /**
+     * Run the work waiting for the saved devices and channels. Called on the main thread.
+     */
+    private void finishLoad() {
+        loaded = true;
+        List<Runnable> waiting = new ArrayList<>(afterLoad);
+        afterLoad.clear();
+        for (Runnable work : waiting)
+            work.run();
+    }
+
+    /**
+     * Get the current ip of a device. Until the saved devices are loaded only devices found since the app started
+     * are known, see {@link #whenLoaded(Runnable)}.
+     * @param serial device serial, may be empty
+     * @param fallbackIp ip to use if the device is not known
+     * @return ip
+     */
+    String resolveIp(String serial, String fallbackIp) {
+        return discovery.resolveIp(serial, fallbackIp);
+    }
+
+    /**
+     * Get the current ip of a cast group member
+     * @param member device serial, or an ip in groups saved before members were kept by serial
+     * @return ip or null if no known device has the serial
+     */
+    String resolveGroupMember(String member) {
+        if (Patterns.IP_ADDRESS.matcher(member).matches())
+            return member;
+        RokuDevice device = registry.findBySerial(member);
+        return device == null ? null : device.getIp();
+    }
+
+    /**
+     * Get the Twitched channel to launch on a device from the cached app list. Never makes a request or reads the
+     * disk, the preferred app id is used until the cache has loaded in the background.
+     * @param serial device serial, may be empty
+     * @param ip device ip, used to find the serial if it is empty
+     * @param preferredAppId app id chosen in the dropdown
+     * @return app id that is installed on the device or the preferred one if unknown
+     */
+    String getAppId(String serial, String ip, String preferredAppId) {
+        if (serial == null || serial.isEmpty()) {
+            RokuDevice device = registry.findByIp(ip);
+            serial = device == null ? ip : device.getSerial();
+        }
+        return channelCache.getAppId(serial, preferredAppId);
+    }
+
+    /**
+     * Fetch the installed channels of a device in the background if the cached list is missing or expired
+     * @param serial device serial
+     * @param ip device ip
+     */
+    private void revalidateChannels(final String serial, final String ip) {
+        if (!channelCache.needsRevalidation(serial))
+            return;
+        scheduler.submit(this, TASK_CHANNELS + serial, new Callable<Void>() {
+            @Override
+            public Void call() {
+                long queryStart = System.nanoTime();
+                try {
+                    String appsXml = EcpClient.getInstance().query(ip, "/query/apps", CHANNELS_TIMEOUT);
+                    Set<String> installed = AppListParser.findInstalled(appsXml, ChannelCache.APP_IDS);
+                    Metrics.APP_LIST_QUERY.recordSince(queryStart);
+                    channelCache.put(serial, installed);
+                    Log.d("Discovery", String.format("Channels on %s: %s", ip, installed));
+                }
+                catch (WebbException e) {
+                    Log.d("Discovery", String.format("Failed to query channels on %s: %s", ip, e.getMessage()));
+                }
+                catch (XmlPullParserException | IOException e) {
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Start a search for Rokus on the network. SSDP is tried first and the subnets are swept if it finds nothing.
+     * If a search is already in flight it is joined instead and only the listener is replaced. Must be called on the
+     * main thread.
+     * @param listener notified when the search finishes
+     */
+    void search(SearchListener listener) {
+        searchListener = listener;
+        if (discovery.isSearching()) {
+            Log.d("Discovery", "Joining running search");
+            return;
+        }
+        discovery.search(new TaskScheduler.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer found) {
+                finishSearch();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+                finishSearch();
+            }
+        });
+    }
+
+    /**
+     * Stop a running search without notifying its listener. Must be called on the main thread.
+     */
+    void cancelSearch() {
+        searchListener = null;
+        discovery.cancelSearch();
+    }
+
+    /**
+     * Notify the search listener. Called on the main thread.
+     */
+    private void finishSearch() {
+        SearchListener listener = searchListener;
+        searchListener = null;
+        if (listener != null)
+            listener.onSearchFinished(registry.getDevices().size());
+    }
+}
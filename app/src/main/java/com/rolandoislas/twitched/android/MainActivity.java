@@ -6,99 +6,129 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
-import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ListView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
-import com.goebl.david.Response;
-import com.goebl.david.Webb;
-import com.goebl.david.WebbException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.roku.DeviceRegistry;
+import com.rolandoislas.twitched.android.roku.EcpClient;
+import com.rolandoislas.twitched.android.roku.ReachabilityTracker;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.IOException;
-import java.io.StringReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
     static final String PREF_MAIN = "preferences_main";
     static final String ROKU_IP = "roku_ip";
     static final String ROKU_APP_ID = "roku_app_id";
+    static final String ROKU_GROUP = "roku_group";
+    static final String ROKU_SERIAL = "roku_serial";
     public static final String MSG_ERR = MainActivity.class.getSimpleName() + "msg.error";
     private static final String URL_INFO = "https://www.twitched.org/";
-    private Webb webb;
+    private static final int LIST_UPDATE_DELAY = 16;
     private Handler handler;
-    private List<String> rokus;
+    private DiscoveryManager discovery;
+    private DeviceRegistry rokus;
+    private ReachabilityTracker reachability;
+    private RokuListAdapter rokuListAdapter;
+    private final AtomicBoolean rokuListUpdatePending = new AtomicBoolean(false);
+    private final Runnable rokuListUpdate = new Runnable() {
+        @Override
+        public void run() {
+            rokuListUpdatePending.set(false);
+            rokuListAdapter.setRokus(reachability.sort(rokus.getDevices()));
+        }
+    };
+    private final DeviceRegistry.Listener rokusListener = new DeviceRegistry.Listener() {
+        @Override
+        public void onDevicesChanged() {
+            scheduleRokuListUpdate();
+        }
+    };
+    private final Runnable startSearch = new Runnable() {
+        @Override
+        public void run() {
+            discovery.search(searchListener);
+            StartupTrace.finish("main.search_started", Metrics.STARTUP_DISCOVERY);
+        }
+    };
+    private final DiscoveryManager.SearchListener searchListener = new DiscoveryManager.SearchListener() {
+        @Override
+        public void onSearchFinished(int found) {
+            if (found == 0)
+                showMessage(R.string.message_search_failed, true);
+            findViewById(R.id.searchIndicator).setVisibility(View.GONE);
+            findViewById(R.id.buttonRetry).setVisibility(View.VISIBLE);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.mark("main.create");
         super.onCreate(savedInstanceState);
         // Fields
-        webb = Webb.create();
         handler = new Handler(getMainLooper());
-        rokus = new ArrayList<>();
+        discovery = DiscoveryManager.getInstance(this);
+        rokus = discovery.getRegistry();
+        reachability = EcpClient.getInstance().getReachability();
         // Set view
         setContentView(R.layout.activity_main);
-        // Populate dropdown
+        StartupTrace.mark("main.content_view");
+        // Populate dropdown, the saved selection is applied once the preferences are loaded
         List<String> appTypes = new ArrayList<>();
         appTypes.add(getString(R.string.title_twitched));
         appTypes.add(getString(R.string.title_twitched_zero));
         Spinner appIdDropdown = (Spinner) findViewById(R.id.appIdDropdown);
         appIdDropdown.setAdapter(new ArrayAdapter<>(getBaseContext(), android.R.layout.simple_list_item_1, appTypes));
-        appIdDropdown.setSelection(getAppIdIndex(), false);
         // Handle list item click
-        ListView rokuList = (ListView) findViewById(R.id.rokuList);
-        rokuList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        RecyclerView rokuList = (RecyclerView) findViewById(R.id.rokuList);
+        rokuList.setLayoutManager(new LinearLayoutManager(this));
+        rokuListAdapter = new RokuListAdapter(new RokuListAdapter.OnRokuClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                if (!(view instanceof TextView))
-                    return;
-                TextView textView = (TextView) view;
-                String[] dashSplit = textView.getText().toString().split("-");
-                String ip = dashSplit[dashSplit.length - 1].trim();
+            public void onRokuClick(RokuDevice roku) {
                 TextView ipField = (TextView) findViewById(R.id.ipField);
-                ipField.setText(ip);
-                saveIp(ip);
+                ipField.setText(roku.getIp());
+                saveIp(roku.getIp(), roku.getSerial());
                 saveAppId();
                 showMessage(R.string.message_ip_saved);
             }
+
+            @Override
+            public void onRokuLongClick(RokuDevice roku) {
+                toggleGroupMember(roku);
+            }
         });
+        rokuList.setAdapter(rokuListAdapter);
+        rokus.addListener(rokusListener);
+        rokuListAdapter.setRokus(reachability.sort(rokus.getDevices()));
         // Handle ip field submit
         TextView ipField = (TextView) findViewById(R.id.ipField);
-        ipField.setText(getIp());
         ipField.setOnEditorActionListener(new TextView.OnEditorActionListener() {
             @Override
             public boolean onEditorAction(TextView ipField, int actionId, KeyEvent event) {
                 if (actionId == EditorInfo.IME_ACTION_DONE) {
                     if (ipField.getText().toString().isEmpty())
                         return false;
-                    saveIp(ipField.getText().toString());
+                    saveIp(ipField.getText().toString(), "");
                     saveAppId();
                     showMessage(R.string.message_ip_saved);
                     return true;
@@ -117,6 +147,13 @@ public class MainActivity extends AppCompatActivity {
                 finish();
             }
         });
+        infoButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View infoButton) {
+                showMetrics();
+                return true;
+            }
+        });
         // Retry button event
         Button retryButton = (Button) findViewById(R.id.buttonRetry);
         retryButton.setOnClickListener(new View.OnClickListener() {
@@ -124,9 +161,7 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(View retryButton) {
                 retryButton.setVisibility(View.GONE);
                 findViewById(R.id.searchIndicator).setVisibility(View.VISIBLE);
-                rokus.clear();
-                ((ListView) findViewById(R.id.rokuList)).setAdapter(null);
-                searchForRokus();
+                discovery.search(searchListener);
             }
         });
         // Save button event
@@ -137,13 +172,84 @@ public class MainActivity extends AppCompatActivity {
                 TextView ipField = (TextView) findViewById(R.id.ipField);
                 if (ipField.getText().toString().isEmpty())
                     return;
-                saveIp(ipField.getText().toString());
+                saveIp(ipField.getText().toString(), "");
                 saveAppId();
                 showMessage(R.string.message_ip_saved);
             }
         });
-        // Start search
-        searchForRokus();
+        loadPreferences();
+        // Start the search once the first frame is up, known devices are listed as soon as they are loaded
+        searchAfterFirstDraw();
+    }
+
+    /**
+     * Read the saved ip, app id and group in the background and fill them in once they are loaded
+     */
+    private void loadPreferences() {
+        AppScheduler.getInstance().submit(this, null, new Callable<SavedPreferences>() {
+            @Override
+            public SavedPreferences call() {
+                return new SavedPreferences(getIp(), getAppIdIndex(), getGroup());
+            }
+        }, new TaskScheduler.Callback<SavedPreferences>() {
+            @Override
+            public void onSuccess(SavedPreferences preferences) {
+                TextView ipField = (TextView) findViewById(R.id.ipField);
+                // Keep anything typed while loading
+                if (ipField.getText().length() == 0)
+                    ipField.setText(preferences.ip);
+                ((Spinner) findViewById(R.id.appIdDropdown)).setSelection(preferences.appIdIndex, false);
+                rokuListAdapter.setGroupSerials(preferences.group);
+                StartupTrace.mark("main.preferences_loaded", Metrics.STARTUP_PREFERENCES);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Start a search after the first frame is drawn so it never delays it
+     */
+    private void searchAfterFirstDraw() {
+        getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.mark("main.first_draw", Metrics.STARTUP_FIRST_DRAW);
+                // Posted so it runs after the frame that is about to be drawn
+                handler.post(startSearch);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Follow devices joining and leaving while visible
+        discovery.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        discovery.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(rokuListUpdate);
+        handler.removeCallbacks(startSearch);
+        AppScheduler.getInstance().cancelAll(this);
+        rokus.removeListener(rokusListener);
+        // The search is shared by the app, a recreated activity picks it up again
+        if (isFinishing())
+            discovery.cancelSearch();
     }
 
     /**
@@ -194,6 +300,16 @@ public class MainActivity extends AppCompatActivity {
      * @param showLong long duration
      */
     static void showMessage(Context context, int msg, boolean showLong) {
+        showMessage(context, context.getString(msg), showLong);
+    }
+
+    /**
+     * Show a toast message
+     * @param context context to show the toast in
+     * @param msg message text
+     * @param showLong show for a long duration
+     */
+    static void showMessage(Context context, CharSequence msg, boolean showLong) {
         Toast toast = Toast.makeText(context, msg, showLong ? Toast.LENGTH_LONG : Toast.LENGTH_SHORT);
         toast.setGravity(Gravity.BOTTOM | Gravity.CENTER_HORIZONTAL, 0, 100);
         toast.show();
@@ -202,9 +318,39 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Save the IP to local storage
      * @param ip ip value to save
+     * @param serial serial of the Roku at the ip, used to find it again if its ip changes, or empty if unknown
+     */
+    private void saveIp(String ip, String serial) {
+        getSharedPreferences(PREF_MAIN, MODE_PRIVATE).edit()
+                .putString(ROKU_IP, ip)
+                .putString(ROKU_SERIAL, serial)
+                .apply();
+    }
+
+    /**
+     * Get the Rokus a cast is sent to together. Members are kept by serial so they are followed to a new ip.
+     * @return group member serials, or ips in groups saved by older versions, empty if no group is saved
+     */
+    private Set<String> getGroup() {
+        return new HashSet<>(getSharedPreferences(PREF_MAIN, MODE_PRIVATE)
+                .getStringSet(ROKU_GROUP, Collections.<String>emptySet()));
+    }
+
+    /**
+     * Add a Roku to the cast group or remove it if it is already a member
+     * @param roku Roku
      */
-    private void saveIp(String ip) {
-        getSharedPreferences(PREF_MAIN, MODE_PRIVATE).edit().putString(ROKU_IP, ip).apply();
+    private void toggleGroupMember(RokuDevice roku) {
+        Set<String> group = getGroup();
+        boolean added = !group.remove(roku.getSerial());
+        // Groups saved by older versions hold ips
+        if (group.remove(roku.getIp()))
+            added = false;
+        if (added)
+            group.add(roku.getSerial());
+        getSharedPreferences(PREF_MAIN, MODE_PRIVATE).edit().putStringSet(ROKU_GROUP, group).apply();
+        rokuListAdapter.setGroupSerials(group);
+        showMessage(added ? R.string.message_group_added : R.string.message_group_removed);
     }
 
     /**
@@ -216,179 +362,38 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Start a background search for Rokus on the network
+     * Show a dialog with the recorded discovery and cast metrics and write them to the log
      */
-    private void searchForRokus() {
-        Thread ssdpThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                searchSsdp();
-            }
-        });
-        ssdpThread.setName("SSDP");
-        ssdpThread.setDaemon(true);
-        Log.d("Main", "Starting search thread");
-        ssdpThread.start();
+    private void showMetrics() {
+        String dump = Metrics.dump();
+        Log.d("Metrics", dump);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_metrics)
+                .setMessage(dump.isEmpty() ? getString(R.string.message_no_metrics) : dump)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     /**
-     * Search for Rokus via SSDP
+     * Apply registry changes to the list. Bursts of changes from any thread are batched into one update per frame.
      */
-    private void searchSsdp() {
-        Log.d("Search", "Starting SSDP search");
-        byte[] msearchMessage =
-                "M-SEARCH * HTTP/1.1\nHost: 239.255.255.250:1900\nMan: \"ssdp:discover\"\nST: roku:ecp\n"
-                        .getBytes();
-        try {
-            InetAddress sendTo = InetAddress.getByName("239.255.255.250");
-            DatagramPacket msearchPacket = new DatagramPacket(msearchMessage, msearchMessage.length, sendTo, 1900);
-            DatagramSocket msearchSocket = new DatagramSocket();
-            msearchSocket.setSoTimeout(5000);
-            byte[] responseBuffer = new byte[2048];
-            msearchSocket.send(msearchPacket);
-            DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
-            while (msearchSocket.isConnected()) {
-                msearchSocket.receive(responsePacket);
-                String response = new String(responsePacket.getData());
-                // Parse response
-                if (!response.startsWith("HTTP/1.1 200 OK"))
-                    continue;
-                String[] locationSplit = response.split("LOCATION:");
-                if (locationSplit.length < 2)
-                    continue;
-                String[] newLineSplit = locationSplit[1].split("(?:\\r*)\\n");
-                String location = newLineSplit[0].trim();
-                Pattern ipv4Regex = Pattern.compile("http(?:s?)://((?:\\d{1,3}\\.){3}\\d{3}).*");
-                Matcher matcher = ipv4Regex.matcher(location);
-                if (!matcher.matches())
-                    continue;
-                String ip = matcher.group(1);
-                addRokuToSearchList(ip, false);
-            }
-            msearchSocket.close();
-            Log.d("Search", "Search finished");
-        }
-        catch (SocketTimeoutException ignore) { }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-        if (rokus.size() == 0)
-            searchIps();
-        else {
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    findViewById(R.id.searchIndicator).setVisibility(View.GONE);
-                    findViewById(R.id.buttonRetry).setVisibility(View.VISIBLE);
-                }
-            });
-        }
+    private void scheduleRokuListUpdate() {
+        if (rokuListUpdatePending.compareAndSet(false, true))
+            handler.postDelayed(rokuListUpdate, LIST_UPDATE_DELAY);
     }
 
     /**
-     * Search for Rokus by trying all variations of this devices IPs with their last octet changed
+     * Main preferences read at startup
      */
-    private void searchIps() {
-        Log.d("Search", "Starting IP search");
-        try {
-            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-            while (interfaces.hasMoreElements()) {
-                NetworkInterface iface = interfaces.nextElement();
-                if (iface.isLoopback() || !iface.isUp())
-                    continue;
-                Enumeration<InetAddress> addresses = iface.getInetAddresses();
-                while (addresses.hasMoreElements()) {
-                    InetAddress address = addresses.nextElement();
-                    String localIp = address.getHostAddress();
-                    Pattern ipv4Regex = Pattern.compile("((?:\\d+\\.){3})\\d+");
-                    Matcher matcher = ipv4Regex.matcher(localIp);
-                    if (!matcher.matches())
-                        continue;
-                    String ipPrefix = matcher.group(1);
-                    for (int octet = 1; octet < 255; octet++) {
-                        String ip = String.format(Locale.US, "%s%d", ipPrefix, octet);
-                        addRokuToSearchList(ip, true);
-                    }
-                }
-            }
-        } catch (SocketException e) {
-            e.printStackTrace();
-        }
-        if (rokus.size() == 0) {
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    showMessage(R.string.message_search_failed, true);
-                }
-            });
-        }
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                findViewById(R.id.searchIndicator).setVisibility(View.GONE);
-                findViewById(R.id.buttonRetry).setVisibility(View.VISIBLE);
-            }
-        });
-    }
+    private static class SavedPreferences {
+        private final String ip;
+        private final int appIdIndex;
+        private final Set<String> group;
 
-    /**
-     * Add a roku to the search list
-     * @param ip roku ip
-     */
-    private void addRokuToSearchList(final String ip, boolean fastTimeout) {
-        // Check if the ip is already in the list
-        for (String roku : rokus) {
-            if (roku.contains(ip))
-                return;
-        }
-        // Query device for its name
-        Response<String> response;
-        try {
-            response = webb
-                .get(String.format("http://%s:8060/query/device-info", ip))
-                .connectTimeout(fastTimeout ? 50 : 10000)
-                .ensureSuccess()
-                .asString();
-        }
-        catch (WebbException ignore) {
-            return;
-        }
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder documentBuilder;
-        Document info;
-        try {
-            documentBuilder = factory.newDocumentBuilder();
-            info = documentBuilder.parse(new InputSource(new StringReader(response.getBody())));
-        } catch (ParserConfigurationException | SAXException | IOException e) {
-            e.printStackTrace();
-            return;
+        SavedPreferences(String ip, int appIdIndex, Set<String> group) {
+            this.ip = ip;
+            this.appIdIndex = appIdIndex;
+            this.group = group;
         }
-        NodeList deviceInfoNodes = info.getElementsByTagName("device-info");
-        if (deviceInfoNodes.getLength() < 1)
-            return;
-        Node deviceInfo = deviceInfoNodes.item(0);
-        String vendor = "";
-        String userDeviceName = "";
-        for (int nodeIndex = 0; nodeIndex < deviceInfo.getChildNodes().getLength(); nodeIndex++) {
-            Node node = deviceInfo.getChildNodes().item(nodeIndex);
-            if (node.getNodeName().equals("vendor-name"))
-                vendor = node.getTextContent();
-            else if (node.getNodeName().equals("user-device-name"))
-                userDeviceName = node.getTextContent();
-        }
-        if (!vendor.equalsIgnoreCase("ROKU"))
-            return;
-        // Add to list
-        final String finalUserDeviceName = userDeviceName;
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                ListView rokuList = (ListView) findViewById(R.id.rokuList);
-                rokus.add(finalUserDeviceName + " - " + ip);
-                ArrayAdapter<String> adapter = new ArrayAdapter<>(getBaseContext(), android.R.layout.simple_list_item_1,
-                        rokus);
-                rokuList.setAdapter(adapter);
-            }
-        });
     }
 }
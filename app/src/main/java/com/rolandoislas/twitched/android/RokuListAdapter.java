@@ -0,0 +1,124 @@
+package com.rolandoislas.twitched.android;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckedTextView;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shows discovered Rokus. New device lists are diffed against the current one so only changed rows are rebound. Rokus
+ * in the cast group are shown checked.
+ */
+class RokuListAdapter extends RecyclerView.Adapter<RokuListAdapter.ViewHolder> {
+
+    /**
+     * Receives row clicks
+     */
+    interface OnRokuClickListener {
+        void onRokuClick(RokuDevice roku);
+
+        void onRokuLongClick(RokuDevice roku);
+    }
+
+    private final OnRokuClickListener clickListener;
+    private List<RokuDevice> rokus = new ArrayList<>();
+    private Set<String> group = new HashSet<>();
+
+    RokuListAdapter(OnRokuClickListener clickListener) {
+        this.clickListener = clickListener;
+    }
+
+    /**
+     * Replace the shown devices, dispatching inserts, removals and changes for the difference
+     * @param next new devices
+     */
+    void setRokus(final List<RokuDevice> next) {
+        final List<RokuDevice> previous = rokus;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return previous.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return next.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return previous.get(oldPosition).getSerial().equals(next.get(newPosition).getSerial());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return previous.get(oldPosition).toString().equals(next.get(newPosition).toString());
+            }
+        });
+        rokus = next;
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Replace the devices shown as members of the cast group
+     * @param group member serials, groups saved by older versions hold ips
+     */
+    void setGroupSerials(Set<String> group) {
+        this.group = new HashSet<>(group);
+        notifyItemRangeChanged(0, rokus.size());
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_multiple_choice, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        RokuDevice roku = rokus.get(position);
+        holder.text.setText(roku.toString());
+        holder.text.setChecked(group.contains(roku.getSerial()) || group.contains(roku.getIp()));
+    }
+
+    @Override
+    public int getItemCount() {
+        return rokus.size();
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        private final CheckedTextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = (CheckedTextView) itemView.findViewById(android.R.id.text1);
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION)
+                        clickListener.onRokuClick(rokus.get(position));
+                }
+            });
+            itemView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION)
+                        return false;
+                    clickListener.onRokuLongClick(rokus.get(position));
+                    return true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.rolandoislas.twitched.android;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.rolandoislas.twitched.android.metrics.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Logs how long each step of a cold start takes, measured from the application being created. Lines are tagged with
+ * the app version so cold start times can be compared between releases. Only the first launch of the process is
+ * traced, activities recreated later are not.
+ */
+class StartupTrace {
+    private static final String TAG = "Startup";
+    private static long start = -1;
+    private static boolean finished;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Start the trace. Called when the application is created.
+     */
+    static synchronized void begin() {
+        start = SystemClock.elapsedRealtime();
+        finished = false;
+        mark("application.create");
+    }
+
+    /**
+     * Log a startup step
+     * @param step step name
+     */
+    static void mark(String step) {
+        mark(step, null);
+    }
+
+    /**
+     * Log a startup step and record its time
+     * @param step step name
+     * @param histogram histogram to record the time since the application was created in or null
+     */
+    static synchronized void mark(String step, Histogram histogram) {
+        if (start < 0 || finished)
+            return;
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        if (histogram != null)
+            histogram.record(elapsed);
+        Log.d(TAG, String.format(Locale.US, "%s %s +%d ms", BuildConfig.VERSION_NAME, step, elapsed));
+    }
+
+    /**
+     * Log the last startup step and stop tracing
+     * @param step step name
+     * @param histogram histogram to record the time since the application was created in or null
+     */
+    static synchronized void finish(String step, Histogram histogram) {
+        mark(step, histogram);
+        finished = true;
+    }
+}
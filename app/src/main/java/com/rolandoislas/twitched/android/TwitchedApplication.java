@@ -0,0 +1,15 @@
+package com.rolandoislas.twitched.android;
+
+import android.app.Application;
+
+/**
+ * Marks the start of the process for the startup trace
+ */
+public class TwitchedApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        StartupTrace.begin();
+        super.onCreate();
+    }
+}
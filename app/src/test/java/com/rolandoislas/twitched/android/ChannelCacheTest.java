@@ -0,0 +1,48 @@
+package com.rolandoislas.twitched.android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ChannelCacheTest {
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void roundTripsAnEntry() {
+        ChannelCache.Entry entry = new ChannelCache.Entry(Arrays.asList(ChannelCache.APP_ID_TWITCHED,
+                ChannelCache.APP_ID_TWITCHED_ZERO), NOW);
+        ChannelCache.Entry decoded = ChannelCache.decode(ChannelCache.encode(entry));
+        assertNotNull(decoded);
+        assertEquals(entry.getInstalled(), decoded.getInstalled());
+        assertFalse(decoded.isExpired(NOW));
+    }
+
+    @Test
+    public void roundTripsADeviceWithoutTwitched() {
+        ChannelCache.Entry decoded = ChannelCache.decode(ChannelCache.encode(
+                new ChannelCache.Entry(Collections.<String>emptyList(), NOW)));
+        assertNotNull(decoded);
+        assertTrue(decoded.getInstalled().isEmpty());
+    }
+
+    @Test
+    public void corruptEntriesAreIgnored() {
+        assertNull(ChannelCache.decode("{not json"));
+        assertNull(ChannelCache.decode("{\"checked\":1}"));
+        assertNull(ChannelCache.decode("{\"installed\":\"206723\"}"));
+        assertNull(ChannelCache.decode(12L));
+        assertNull(ChannelCache.decode(null));
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() {
+        ChannelCache.Entry entry = ChannelCache.decode(ChannelCache.encode(
+                new ChannelCache.Entry(Collections.singletonList(ChannelCache.APP_ID_TWITCHED), NOW)));
+        assertNotNull(entry);
+        assertFalse(entry.isExpired(NOW + ChannelCache.TTL));
+        assertTrue(entry.isExpired(NOW + ChannelCache.TTL + 1));
+    }
+}
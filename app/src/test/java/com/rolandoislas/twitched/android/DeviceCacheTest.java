@@ -0,0 +1,68 @@
+package com.rolandoislas.twitched.android;
+
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeviceCacheTest {
+    private static final long NOW = 1500000000000L;
+
+    private static RokuDevice device(String serial, String ip, long lastSeen) {
+        return new RokuDevice(serial, ip, "Living Room", "4660X", "wifi", "PowerOn", lastSeen, 42);
+    }
+
+    @Test
+    public void roundTripsADevice() {
+        RokuDevice device = device("YH00AA000001", "192.168.1.134", NOW);
+        RokuDevice decoded = DeviceCache.decode(device.getSerial(), DeviceCache.encode(device));
+        assertNotNull(decoded);
+        assertEquals("YH00AA000001", decoded.getSerial());
+        assertEquals("192.168.1.134", decoded.getIp());
+        assertEquals("Living Room", decoded.getName());
+        assertEquals("4660X", decoded.getModel());
+        assertEquals("wifi", decoded.getNetworkType());
+        assertEquals("PowerOn", decoded.getPowerMode());
+        assertEquals(NOW, decoded.getLastSeen());
+        assertEquals(42, decoded.getLatency());
+    }
+
+    @Test
+    public void corruptEntriesAreDropped() {
+        assertNull(DeviceCache.decode("serial", "{not json"));
+        assertNull(DeviceCache.decode("serial", "{\"name\":\"No ip\"}"));
+        assertNull(DeviceCache.decode("serial", 7));
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("A", DeviceCache.encode(device("A", "10.0.0.2", NOW)));
+        stored.put("B", "{not json");
+        stored.put("C", true);
+        List<String> expired = new ArrayList<>();
+        List<RokuDevice> devices = DeviceCache.decodeAll(stored, NOW, expired);
+        assertEquals(1, devices.size());
+        assertEquals("A", devices.get(0).getSerial());
+        assertEquals(Arrays.asList("B", "C"), expired);
+    }
+
+    @Test
+    public void expiredEntriesAreDroppedAndTheRestSortedByLastSeen() {
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("old", DeviceCache.encode(device("old", "10.0.0.2", NOW - DeviceCache.TTL - 1)));
+        stored.put("recent", DeviceCache.encode(device("recent", "10.0.0.3", NOW - 1000)));
+        stored.put("newest", DeviceCache.encode(device("newest", "10.0.0.4", NOW)));
+        stored.put("edge", DeviceCache.encode(device("edge", "10.0.0.5", NOW - DeviceCache.TTL)));
+        List<String> expired = new ArrayList<>();
+        List<RokuDevice> devices = DeviceCache.decodeAll(stored, NOW, expired);
+        assertEquals(3, devices.size());
+        assertEquals("newest", devices.get(0).getSerial());
+        assertEquals("recent", devices.get(1).getSerial());
+        assertEquals("edge", devices.get(2).getSerial());
+        assertEquals(Collections.singletonList("old"), expired);
+    }
+}
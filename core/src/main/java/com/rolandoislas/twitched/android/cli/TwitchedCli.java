@@ -0,0 +1,269 @@
+package com.rolandoislas.twitched.android.cli;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.roku.CastResult;
+import com.rolandoislas.twitched.android.roku.DeviceRegistry;
+import com.rolandoislas.twitched.android.roku.EcpClient;
+import com.rolandoislas.twitched.android.roku.LaunchResult;
+import com.rolandoislas.twitched.android.roku.RemoteCommand;
+import com.rolandoislas.twitched.android.roku.RemoteControl;
+import com.rolandoislas.twitched.android.roku.RokuCaster;
+import com.rolandoislas.twitched.android.roku.RokuDevice;
+import com.rolandoislas.twitched.android.roku.RokuDiscovery;
+import com.rolandoislas.twitched.android.task.CoalescingQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.rolandoislas.twitched.android.twitch.CastTarget;
+import com.rolandoislas.twitched.android.twitch.TwitchUrlResolver;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line runner for discovery and casting, for trying changes and profiling from a workstation. Prints every
+ * device event and cast result as it happens and the recorded metrics at the end.
+ */
+public class TwitchedCli {
+    private static final String APP_ID_TWITCHED = "206723";
+    private static final int MAX_THREADS = 40;
+    private static final int CAST_THREADS = 16;
+    private static final String USAGE = "Usage: twitched [--port PORT] [--ssdp HOST:PORT] COMMAND\n" +
+            "Commands:\n" +
+            "  discover                            search for Rokus and list them\n" +
+            "  cast IP URL [APP_ID]                cast a Twitch link to a Roku\n" +
+            "  load IP[,IP...] URL COUNT [APP_ID]  cast to a group of Rokus COUNT times in a row\n" +
+            "  keys IP KEY[,KEY...] [PACING]       press remote keys with PACING ms between them";
+    private final RokuDiscovery discovery;
+    private final RokuCaster caster;
+    private final RemoteControl remote;
+
+    /**
+     * @param port ECP port
+     * @param ssdpAddress address M-SEARCH requests are sent to or null for the SSDP multicast group
+     */
+    private TwitchedCli(int port, InetSocketAddress ssdpAddress) {
+        // Callbacks run on the worker that finished the task, there is no main thread to post to
+        TaskScheduler scheduler = new TaskScheduler("Task", MAX_THREADS, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        EcpClient client = new EcpClient(port);
+        discovery = new RokuDiscovery(scheduler, client, new DeviceRegistry(), new RokuDiscovery.Listener() {
+            @Override
+            public void onDeviceFound(RokuDevice device) {
+                System.out.println(String.format(Locale.US, "Found %s", device));
+            }
+
+            @Override
+            public void onDeviceAnswered(RokuDevice device) {
+            }
+        }, ssdpAddress);
+        caster = new RokuCaster(client, scheduler, new CoalescingQueue("Cast", CAST_THREADS), discovery);
+        remote = new RemoteControl(client, scheduler);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = EcpClient.DEFAULT_PORT;
+        InetSocketAddress ssdpAddress = null;
+        int index = 0;
+        try {
+            for (; index < args.length && args[index].startsWith("--"); index += 2) {
+                if (index + 1 >= args.length)
+                    usage();
+                if (args[index].equals("--port"))
+                    port = Integer.parseInt(args[index + 1]);
+                else if (args[index].equals("--ssdp")) {
+                    String[] hostAndPort = args[index + 1].split(":");
+                    ssdpAddress = new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+                }
+                else
+                    usage();
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        List<String> command = Arrays.asList(args).subList(Math.min(index, args.length), args.length);
+        if (command.isEmpty())
+            usage();
+        TwitchedCli cli = new TwitchedCli(port, ssdpAddress);
+        boolean success;
+        switch (command.get(0)) {
+            case "discover":
+                success = cli.discover();
+                break;
+            case "cast":
+                if (command.size() < 3)
+                    usage();
+                success = cli.cast(command.get(1), command.get(2), getAppId(command, 3));
+                break;
+            case "load":
+                if (command.size() < 4)
+                    usage();
+                success = cli.load(Arrays.asList(command.get(1).split(",")), command.get(2),
+                        (int) parseNumber(command.get(3), 1, Integer.MAX_VALUE), getAppId(command, 4));
+                break;
+            case "keys":
+                if (command.size() < 3)
+                    usage();
+                success = cli.keys(command.get(1), Arrays.asList(command.get(2).split(",")),
+                        command.size() > 3 ? parseNumber(command.get(3), 0, Long.MAX_VALUE) :
+                                RemoteControl.DEFAULT_PACING);
+                break;
+            default:
+                usage();
+                return;
+        }
+        System.out.println(Metrics.dump());
+        System.exit(success ? 0 : 1);
+    }
+
+    private static String getAppId(List<String> command, int index) {
+        return command.size() > index ? command.get(index) : APP_ID_TWITCHED;
+    }
+
+    /**
+     * Parse a numeric argument, exiting with the usage if it is not a number in range
+     * @param argument argument
+     * @param min smallest accepted value
+     * @param max largest accepted value
+     * @return value
+     */
+    private static long parseNumber(String argument, long min, long max) {
+        try {
+            long value = Long.parseLong(argument);
+            if (value >= min && value <= max)
+                return value;
+        }
+        catch (NumberFormatException ignore) {
+        }
+        usage();
+        return min;
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Search for Rokus and list what was found
+     * @return true if a Roku was found
+     */
+    private boolean discover() throws Exception {
+        long start = System.nanoTime();
+        int found = RokuCaster.await(discovery.search(null));
+        System.out.println(String.format(Locale.US, "Search found %d Rokus in %d ms", found,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        for (RokuDevice device : discovery.getRegistry().getDevices())
+            System.out.println(device);
+        return found > 0;
+    }
+
+    /**
+     * Cast a link to one Roku and wait for the channel to open
+     * @param ip roku ip
+     * @param url Twitch link
+     * @param appId channel to launch
+     * @return true if the channel opened
+     */
+    private boolean cast(String ip, String url, String appId) throws Exception {
+        CastTarget target = resolve(url);
+        if (target == null)
+            return false;
+        long start = System.nanoTime();
+        CastResult result;
+        try {
+            result = RokuCaster.await(caster.cast(ip, "", appId, target, start));
+        }
+        catch (WebbException e) {
+            System.out.println(String.format("Cast to %s failed: %s", ip, e.getMessage()));
+            return false;
+        }
+        System.out.println(String.format(Locale.US, "Cast %s in %d ms", result,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return result.isConfirmed();
+    }
+
+    /**
+     * Cast a link to a group of Rokus repeatedly, waiting for each round to be accepted before starting the next
+     * @param ips roku ips
+     * @param url Twitch link
+     * @param count number of rounds
+     * @param appId channel to launch
+     * @return true if every launch was accepted
+     */
+    private boolean load(List<String> ips, String url, int count, String appId) throws Exception {
+        CastTarget target = resolve(url);
+        if (target == null)
+            return false;
+        Map<String, String> appIds = new LinkedHashMap<>();
+        for (String ip : ips)
+            appIds.put(ip, appId);
+        caster.warm(ips);
+        List<Long> rounds = new ArrayList<>();
+        boolean success = true;
+        for (int round = 0; round < count; round++) {
+            long start = System.nanoTime();
+            int succeeded = 0;
+            for (LaunchResult result : RokuCaster.await(caster.castToGroup(appIds, target, start))) {
+                if (result.isSuccess())
+                    succeeded++;
+                else
+                    System.out.println(result);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            rounds.add(millis);
+            success &= succeeded == ips.size();
+            System.out.println(String.format(Locale.US, "Round %d: %d of %d launched in %d ms", round + 1,
+                    succeeded, ips.size(), millis));
+        }
+        long total = 0;
+        for (long millis : rounds)
+            total += millis;
+        System.out.println(String.format(Locale.US, "%d rounds, %d ms average", count,
+                count == 0 ? 0 : total / count));
+        return success;
+    }
+
+    /**
+     * Press a sequence of remote keys on a Roku
+     * @param ip roku ip
+     * @param keys ECP key names
+     * @param pacing delay in milliseconds between keys
+     * @return true if every key was accepted
+     */
+    private boolean keys(String ip, List<String> keys, long pacing) throws Exception {
+        List<RemoteCommand> commands = new ArrayList<>();
+        for (String key : keys)
+            commands.add(RemoteCommand.keypress(key));
+        long start = System.nanoTime();
+        int sent;
+        try {
+            sent = RokuCaster.await(remote.send(ip, commands, pacing));
+        }
+        catch (WebbException e) {
+            System.out.println(String.format("Keys to %s failed: %s", ip, e.getMessage()));
+            return false;
+        }
+        System.out.println(String.format(Locale.US, "Sent %d keys in %d ms", sent,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return true;
+    }
+
+    private static CastTarget resolve(String url) {
+        CastTarget target = TwitchUrlResolver.resolve(url);
+        if (target == null)
+            System.err.println(String.format("Not a Twitch link: %s", url));
+        return target;
+    }
+}
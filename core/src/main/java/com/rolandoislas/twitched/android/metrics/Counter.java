@@ -0,0 +1,31 @@
+package com.rolandoislas.twitched.android.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free event counter
+ */
+public class Counter {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,113 @@
+package com.rolandoislas.twitched.android.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide registry of discovery and cast timings. Hot paths should keep a reference to the histogram or counter
+ * instead of looking it up for every event.
+ */
+public class Metrics {
+    public static final String UNIT_MILLIS = "ms";
+    public static final String UNIT_MICROS = "us";
+    public static final String UNIT_COUNT = "";
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    // Startup, from the application being created
+    public static final Histogram STARTUP_FIRST_DRAW = histogram("startup.first_draw", UNIT_MILLIS);
+    public static final Histogram STARTUP_PREFERENCES = histogram("startup.preferences_loaded", UNIT_MILLIS);
+    public static final Histogram STARTUP_DISCOVERY = histogram("startup.discovery_started", UNIT_MILLIS);
+    // Discovery
+    public static final Histogram SSDP_SEARCH = histogram("discovery.ssdp_search", UNIT_MILLIS);
+    public static final Histogram PORT_SCAN = histogram("discovery.port_scan", UNIT_MILLIS);
+    public static final Histogram IP_SWEEP = histogram("discovery.ip_sweep", UNIT_MILLIS);
+    public static final Histogram PROBES_PER_SECOND = histogram("discovery.probes_per_second", UNIT_COUNT);
+    public static final Histogram TIME_TO_FIRST_DEVICE = histogram("discovery.time_to_first_device", UNIT_MILLIS);
+    public static final Histogram DEVICE_INFO_QUERY = histogram("discovery.device_info_query", UNIT_MILLIS);
+    public static final Histogram DEVICE_INFO_PARSE = histogram("discovery.device_info_parse", UNIT_MICROS);
+    public static final Histogram APP_LIST_QUERY = histogram("discovery.app_list_query", UNIT_MILLIS);
+    public static final Counter PROBES = counter("discovery.probes");
+    public static final Counter FAILED_PROBES = counter("discovery.failed_probes");
+    public static final Counter HEALTH_CHECK_FAILURES = counter("discovery.health_check_failures");
+    // Casting
+    public static final Histogram CAST_ROUND_TRIP = histogram("cast.round_trip", UNIT_MILLIS);
+    public static final Histogram CAST_END_TO_END = histogram("cast.end_to_end", UNIT_MILLIS);
+    public static final Histogram TIME_TO_APP = histogram("cast.time_to_app", UNIT_MILLIS);
+    public static final Histogram TIME_TO_PLAYBACK = histogram("cast.time_to_playback", UNIT_MILLIS);
+    public static final Counter CAST_FAILURES = counter("cast.failures");
+    public static final Counter CAST_UNCONFIRMED = counter("cast.unconfirmed");
+    public static final Counter CONFIRM_POLLS = counter("cast.confirm_polls");
+    public static final Histogram CAST_QUEUE_DEPTH = histogram("cast.queue_depth", UNIT_COUNT);
+    public static final Counter CAST_DROPPED = counter("cast.dropped");
+    public static final Counter ECP_RETRIES = counter("ecp.retries");
+    public static final Counter ECP_FAST_FAILURES = counter("ecp.fast_failures");
+    public static final Histogram ECP_PING = histogram("ecp.ping", UNIT_MILLIS);
+    // Remote control
+    public static final Histogram REMOTE_COMMAND = histogram("remote.command", UNIT_MILLIS);
+    public static final Histogram REMOTE_THROUGHPUT = histogram("remote.commands_per_second", UNIT_COUNT);
+    public static final Counter REMOTE_FAILURES = counter("remote.failures");
+
+    private Metrics() {
+    }
+
+    /**
+     * Get or create a histogram
+     * @param name metric name
+     * @param unit unit shown in dumps
+     * @return histogram
+     */
+    public static Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        if (histogram != null)
+            return histogram;
+        Histogram created = new Histogram(name, unit);
+        histogram = histograms.putIfAbsent(name, created);
+        return histogram == null ? created : histogram;
+    }
+
+    /**
+     * Get or create a counter
+     * @param name metric name
+     * @return counter
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null)
+            return counter;
+        Counter created = new Counter(name);
+        counter = counters.putIfAbsent(name, created);
+        return counter == null ? created : counter;
+    }
+
+    /**
+     * Format every metric with recorded values as a plain text table
+     * @return dump
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        List<String> names = new ArrayList<>(histograms.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Histogram histogram = histograms.get(name);
+            if (histogram.getCount() == 0)
+                continue;
+            dump.append(String.format(Locale.US, "%s%s\n  n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d\n",
+                    name, histogram.getUnit().isEmpty() ? "" : " (" + histogram.getUnit() + ")",
+                    histogram.getCount(), histogram.getMean(), histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMax()));
+        }
+        names = new ArrayList<>(counters.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Counter counter = counters.get(name);
+            if (counter.getCount() == 0)
+                continue;
+            dump.append(String.format(Locale.US, "%s\n  %d\n", name, counter.getCount()));
+        }
+        return dump.toString();
+    }
+}
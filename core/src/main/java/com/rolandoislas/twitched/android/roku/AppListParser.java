@@ -0,0 +1,53 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Streaming reader for /query/apps. Only app id attributes are read, channel names are skipped, and parsing stops as
+ * soon as every wanted app has been seen.
+ */
+public class AppListParser {
+
+    private AppListParser() {
+    }
+
+    /**
+     * Find which of some channels are installed
+     * @param xml response body
+     * @param wantedIds channel ids to look for
+     * @return wanted ids present in the document in the order they appear
+     * @throws XmlPullParserException if the document is malformed or is not an app list
+     * @throws IOException if the document cannot be read
+     */
+    public static Set<String> findInstalled(String xml, Collection<String> wantedIds)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = PullParsers.get();
+        parser.setInput(new StringReader(xml));
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG && event != XmlPullParser.END_DOCUMENT)
+            event = parser.next();
+        if (event != XmlPullParser.START_TAG || !"apps".equals(parser.getName()))
+            throw new XmlPullParserException("Missing apps element");
+        Set<String> installed = new LinkedHashSet<>();
+        int depth = parser.getDepth();
+        while (installed.size() < wantedIds.size()) {
+            event = parser.next();
+            if (event == XmlPullParser.END_DOCUMENT ||
+                    (event == XmlPullParser.END_TAG && parser.getDepth() == depth))
+                break;
+            if (event != XmlPullParser.START_TAG || parser.getDepth() != depth + 1 || !"app".equals(parser.getName()))
+                continue;
+            String id = parser.getAttributeValue(null, "id");
+            if (id != null && wantedIds.contains(id))
+                installed.add(id);
+        }
+        return installed;
+    }
+}
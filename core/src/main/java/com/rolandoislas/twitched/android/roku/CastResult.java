@@ -0,0 +1,31 @@
+package com.rolandoislas.twitched.android.roku;
+
+/**
+ * Outcome of a cast to one device that accepted the launch
+ */
+public class CastResult {
+    private final String ip;
+    private final boolean confirmed;
+
+    /**
+     * @param ip ip the launch was accepted at, which differs from the requested one if the device moved
+     * @param confirmed true if the channel was seen opening
+     */
+    public CastResult(String ip, boolean confirmed) {
+        this.ip = ip;
+        this.confirmed = confirmed;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s", ip, confirmed ? "confirmed" : "unconfirmed");
+    }
+}
@@ -0,0 +1,66 @@
+package com.rolandoislas.twitched.android.roku;
+
+/**
+ * Fields read from a Roku's /query/device-info response
+ */
+public class DeviceInfo {
+    String vendorName = "";
+    String userDeviceName = "";
+    String serialNumber = "";
+    String udn = "";
+    String modelName = "";
+    String networkType = "";
+    String powerMode = "";
+
+    public String getVendorName() {
+        return vendorName;
+    }
+
+    public String getUserDeviceName() {
+        return userDeviceName;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getUdn() {
+        return udn;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * @return wifi or ethernet
+     */
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    /**
+     * @return PowerOn, DisplayOff, Ready or Headless
+     */
+    public String getPowerMode() {
+        return powerMode;
+    }
+
+    /**
+     * @return true if the vendor is Roku
+     */
+    public boolean isRoku() {
+        return vendorName.equalsIgnoreCase("ROKU");
+    }
+
+    /**
+     * Get a value that identifies the device across ip changes
+     * @param fallback value to use if the device reports neither a serial number nor a UDN
+     * @return serial number, UDN or the fallback
+     */
+    public String getIdentifier(String fallback) {
+        if (!serialNumber.isEmpty())
+            return serialNumber;
+        return udn.isEmpty() ? fallback : udn;
+    }
+}
@@ -0,0 +1,64 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Streaming reader for /query/device-info. Parsing stops as soon as every wanted field has been read, and each thread
+ * reuses a single pull parser.
+ */
+public class DeviceInfoParser {
+    private static final int FIELD_COUNT = 7;
+    private DeviceInfoParser() {
+    }
+
+    /**
+     * Parse a device-info document
+     * @param xml response body
+     * @return device info
+     * @throws XmlPullParserException if the document is malformed or is not a device-info document
+     * @throws IOException if the document cannot be read
+     */
+    public static DeviceInfo parse(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser parser = PullParsers.get();
+        parser.setInput(new StringReader(xml));
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG && event != XmlPullParser.END_DOCUMENT)
+            event = parser.next();
+        if (event != XmlPullParser.START_TAG || !"device-info".equals(parser.getName()))
+            throw new XmlPullParserException("Missing device-info element");
+        DeviceInfo info = new DeviceInfo();
+        int found = 0;
+        int depth = parser.getDepth();
+        while (found < FIELD_COUNT) {
+            event = parser.next();
+            if (event == XmlPullParser.END_DOCUMENT ||
+                    (event == XmlPullParser.END_TAG && parser.getDepth() == depth))
+                break;
+            if (event != XmlPullParser.START_TAG || parser.getDepth() != depth + 1)
+                continue;
+            String name = parser.getName();
+            if ("vendor-name".equals(name))
+                info.vendorName = parser.nextText();
+            else if ("user-device-name".equals(name))
+                info.userDeviceName = parser.nextText();
+            else if ("serial-number".equals(name))
+                info.serialNumber = parser.nextText();
+            else if ("udn".equals(name))
+                info.udn = parser.nextText();
+            else if ("model-name".equals(name))
+                info.modelName = parser.nextText();
+            else if ("network-type".equals(name))
+                info.networkType = parser.nextText();
+            else if ("power-mode".equals(name))
+                info.powerMode = parser.nextText();
+            else
+                continue;
+            found++;
+        }
+        return info;
+    }
+}
@@ -0,0 +1,156 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread safe set of known Rokus. Devices are identified by serial and only matched by ip when their serial is not
+ * known, so after DHCP hands a device's ip to another Roku each keeps its own entry. No two entries hold the same ip;
+ * the entry that last answered on an ip wins it. Listeners are notified after every change on the thread that made it.
+ */
+public class DeviceRegistry {
+
+    /**
+     * Notified after the devices change
+     */
+    public interface Listener {
+        void onDevicesChanged();
+    }
+
+    private final List<RokuDevice> devices = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add a device or replace its entry. The entry with the same serial is replaced, or the entry with the same ip when
+     * no entry has the serial. Any other entry still holding the ip is dropped.
+     * @param device device to store
+     */
+    public void update(RokuDevice device) {
+        synchronized (this) {
+            int index = indexOfSerial(device.getSerial());
+            if (index < 0)
+                index = indexOfIp(device.getIp());
+            if (index < 0)
+                devices.add(device);
+            else
+                devices.set(index, device);
+            for (int other = devices.size() - 1; other >= 0; other--) {
+                if (devices.get(other) != device && device.getIp().equals(devices.get(other).getIp()))
+                    devices.remove(other);
+            }
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Add the devices whose serial and ip are not known yet, keeping the entries that are
+     * @param added devices to add
+     */
+    public void addAbsent(List<RokuDevice> added) {
+        boolean changed = false;
+        synchronized (this) {
+            for (RokuDevice device : added) {
+                if (indexOfSerial(device.getSerial()) < 0 && indexOfIp(device.getIp()) < 0) {
+                    devices.add(device);
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+            notifyListeners();
+    }
+
+    /**
+     * Remove a device by serial
+     * @param serial device serial
+     * @return removed device or null if no device has the serial
+     */
+    public RokuDevice remove(String serial) {
+        RokuDevice removed;
+        synchronized (this) {
+            int index = indexOfSerial(serial);
+            if (index < 0)
+                return null;
+            removed = devices.remove(index);
+        }
+        notifyListeners();
+        return removed;
+    }
+
+    /**
+     * Remove a device by ip unless it answered recently
+     * @param ip device ip
+     * @param seenBefore epoch millis the device must have last answered before to be removed
+     * @return removed device or null if no device that old has the ip
+     */
+    public RokuDevice removeByIp(String ip, long seenBefore) {
+        RokuDevice removed;
+        synchronized (this) {
+            int index = indexOfIp(ip);
+            if (index < 0 || devices.get(index).getLastSeen() >= seenBefore)
+                return null;
+            removed = devices.remove(index);
+        }
+        notifyListeners();
+        return removed;
+    }
+
+    /**
+     * Find a device by serial
+     * @param serial device serial
+     * @return device or null
+     */
+    public synchronized RokuDevice findBySerial(String serial) {
+        int index = indexOfSerial(serial);
+        return index < 0 ? null : devices.get(index);
+    }
+
+    /**
+     * Find a device by ip
+     * @param ip device ip
+     * @return device or null
+     */
+    public synchronized RokuDevice findByIp(String ip) {
+        int index = indexOfIp(ip);
+        return index < 0 ? null : devices.get(index);
+    }
+
+    /**
+     * @return copy of the current devices
+     */
+    public synchronized List<RokuDevice> getDevices() {
+        return new ArrayList<>(devices);
+    }
+
+    private int indexOfSerial(String serial) {
+        if (serial == null)
+            return -1;
+        for (int index = 0; index < devices.size(); index++) {
+            if (serial.equals(devices.get(index).getSerial()))
+                return index;
+        }
+        return -1;
+    }
+
+    private int indexOfIp(String ip) {
+        for (int index = 0; index < devices.size(); index++) {
+            if (ip.equals(devices.get(index).getIp()))
+                return index;
+        }
+        return -1;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : listeners)
+            listener.onDevicesChanged();
+    }
+}
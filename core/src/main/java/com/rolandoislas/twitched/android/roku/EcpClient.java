@@ -0,0 +1,391 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.Response;
+import com.goebl.david.Webb;
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Process wide client for Roku External Control Protocol requests. All requests share one Webb instance so the
+ * platform HTTP connection pool can keep a warm keep-alive connection to each Roku. Bodies are always read fully so
+ * connections are returned to the pool.
+ */
+public class EcpClient {
+    public static final int DEFAULT_PORT = 8060;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    private static final int EXECUTOR_THREADS = 4;
+    private static final int EXECUTOR_QUEUE_SIZE = 64;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static EcpClient instance;
+    private final Logger logger = Logger.getLogger(EcpClient.class.getSimpleName());
+    private volatile Webb webb;
+    private final int port;
+    private final ThreadPoolExecutor executor;
+    private final ReachabilityTracker reachability = new ReachabilityTracker();
+    private volatile int maxRetries = 1;
+    private volatile long retryBackoff = 250;
+
+    /**
+     * @param port ECP port
+     */
+    public EcpClient(int port) {
+        this.port = port;
+        executor = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(EXECUTOR_QUEUE_SIZE), createThreadFactory("ECP"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Create a factory for numbered daemon threads
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Get the HTTP client, creating it on first use so constructing the client stays cheap at startup
+     * @return HTTP client
+     */
+    private Webb getWebb() {
+        Webb current = webb;
+        if (current == null) {
+            synchronized (this) {
+                if (webb == null) {
+                    Webb created = Webb.create();
+                    created.setDefaultHeader("Connection", "keep-alive");
+                    webb = created;
+                }
+                current = webb;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the shared client
+     * @return client for the default ECP port
+     */
+    public static synchronized EcpClient getInstance() {
+        if (instance == null) {
+            // Keep more than the default five idle connections so every Roku on the network can stay warm
+            if (System.getProperty("http.maxConnections") == null)
+                System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+            instance = new EcpClient(DEFAULT_PORT);
+        }
+        return instance;
+    }
+
+    /**
+     * Set how failed requests are retried. The delay doubles after each attempt.
+     * @param maxRetries attempts after the first
+     * @param backoffMillis delay before the first retry
+     */
+    public void setRetryPolicy(int maxRetries, long backoffMillis) {
+        this.maxRetries = maxRetries;
+        this.retryBackoff = backoffMillis;
+    }
+
+    /**
+     * @return health estimates of every device this client has talked to
+     */
+    public ReachabilityTracker getReachability() {
+        return reachability;
+    }
+
+    /**
+     * Build a url for a device
+     * @param ip device ip
+     * @param path path starting with a slash
+     * @return url
+     */
+    public String url(String ip, String path) {
+        return String.format(Locale.US, "http://%s:%d%s", ip, port, path);
+    }
+
+    /**
+     * Make a GET request without retrying
+     * @param ip device ip
+     * @param path path starting with a slash
+     * @param connectTimeout connect timeout in milliseconds
+     * @return response body
+     * @throws WebbException on connection failure or a non-2xx status
+     */
+    public String query(String ip, String path, int connectTimeout) {
+        return query(ip, path, connectTimeout, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Make a GET request without retrying
+     * @param ip device ip
+     * @param path path starting with a slash
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @return response body
+     * @throws WebbException on connection failure or a non-2xx status
+     */
+    public String query(String ip, String path, int connectTimeout, int readTimeout) {
+        Response<String> response = getWebb().get(url(ip, path))
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .ensureSuccess()
+                .asString();
+        return response.getBody();
+    }
+
+    /**
+     * Query a host for its device info
+     * @param ip host ip
+     * @param connectTimeout connect timeout in milliseconds
+     * @return device or null if the host did not answer or is not a Roku
+     */
+    public RokuDevice queryDevice(String ip, int connectTimeout) {
+        String deviceInfoXml;
+        long requestStart = System.nanoTime();
+        Metrics.PROBES.increment();
+        try {
+            deviceInfoXml = query(ip, "/query/device-info", connectTimeout);
+        }
+        catch (WebbException ignore) {
+            Metrics.FAILED_PROBES.increment();
+            return null;
+        }
+        long latency = elapsedMillis(requestStart);
+        Metrics.DEVICE_INFO_QUERY.record(latency);
+        long parseStart = System.nanoTime();
+        DeviceInfo info;
+        try {
+            info = DeviceInfoParser.parse(deviceInfoXml);
+        } catch (XmlPullParserException | IOException e) {
+            logger.info(String.format("Invalid device info from %s: %s", ip, e.getMessage()));
+            return null;
+        }
+        Metrics.DEVICE_INFO_PARSE.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - parseStart));
+        if (!info.isRoku())
+            return null;
+        reachability.recordSuccess(ip, latency);
+        return new RokuDevice(ip, info, System.currentTimeMillis(), latency);
+    }
+
+    /**
+     * Send a cheap request to measure whether a device answers. The outcome is recorded in the reachability tracker.
+     * Any HTTP response counts as an answer.
+     * @param ip device ip
+     * @param timeout connect and read timeout in milliseconds
+     * @return round trip time in milliseconds
+     * @throws WebbException if the device did not answer
+     */
+    public long ping(String ip, int timeout) {
+        long start = System.nanoTime();
+        try {
+            query(ip, "/", timeout, timeout);
+        }
+        catch (WebbException e) {
+            if (e.getResponse() == null) {
+                reachability.recordFailure(ip);
+                throw e;
+            }
+        }
+        long rtt = elapsedMillis(start);
+        reachability.recordSuccess(ip, rtt);
+        Metrics.ECP_PING.record(rtt);
+        return rtt;
+    }
+
+    /**
+     * Make a POST request with an empty body, retrying with backoff according to the retry policy. Requests to a
+     * device the reachability tracker marks unreachable fail immediately.
+     * @param ip device ip
+     * @param path path and query starting with a slash
+     * @throws WebbException if the last attempt failed
+     */
+    public void post(String ip, String path) {
+        post(ip, path, maxRetries);
+    }
+
+    /**
+     * Make a POST request with an empty body and never retry it, for commands that must not run twice such as
+     * keypresses. A request that timed out may still have reached the device. Requests to a device the reachability
+     * tracker marks unreachable fail immediately.
+     * @param ip device ip
+     * @param path path and query starting with a slash
+     * @throws WebbException if the request failed
+     */
+    public void postOnce(String ip, String path) {
+        post(ip, path, 0);
+    }
+
+    /**
+     * Make a POST request with an empty body, retrying with backoff
+     * @param ip device ip
+     * @param path path and query starting with a slash
+     * @param retries attempts after the first
+     * @throws WebbException if the last attempt failed
+     */
+    private void post(String ip, String path, int retries) {
+        if (reachability.isUnreachable(ip)) {
+            Metrics.ECP_FAST_FAILURES.increment();
+            throw new WebbException(String.format("%s is unreachable", ip));
+        }
+        String url = url(ip, path);
+        long backoff = retryBackoff;
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                getWebb().post(url)
+                        .body("")
+                        .connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+                        .readTimeout(DEFAULT_READ_TIMEOUT)
+                        .ensureSuccess()
+                        .asVoid();
+                reachability.recordSuccess(ip, elapsedMillis(start));
+                return;
+            }
+            catch (WebbException e) {
+                if (attempt >= retries || !isRetryable(e)) {
+                    // Only the final outcome counts so a retried request is one failure, not several
+                    if (e.getResponse() == null)
+                        reachability.recordFailure(ip);
+                    else
+                        reachability.recordSuccess(ip, elapsedMillis(start));
+                    throw e;
+                }
+                Metrics.ECP_RETRIES.increment();
+                logger.info(String.format(Locale.US, "POST %s failed (%s), retrying in %d ms", path,
+                        e.getMessage(), backoff));
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WebbException("Interrupted while waiting to retry", e);
+            }
+            backoff *= 2;
+        }
+    }
+
+    /**
+     * Connection failures and server errors are worth retrying, client errors are not
+     */
+    private static boolean isRetryable(WebbException e) {
+        Response<?> response = e.getResponse();
+        return response == null || response.getStatusCode() >= 500;
+    }
+
+    /**
+     * Launch a channel
+     * @param ip device ip
+     * @param appId channel id
+     * @param query launch parameters without the leading question mark
+     * @throws WebbException if the launch failed
+     */
+    public void launch(String ip, String appId, String query) {
+        post(ip, String.format("/launch/%s?%s", appId, query));
+    }
+
+    /**
+     * Launch a channel, reporting failure in the result instead of throwing
+     * @param ip device ip
+     * @param appId channel id
+     * @param query launch parameters without the leading question mark
+     * @return launch result
+     */
+    public LaunchResult tryLaunch(String ip, String appId, String query) {
+        long start = System.nanoTime();
+        try {
+            launch(ip, appId, query);
+            Metrics.CAST_ROUND_TRIP.recordSince(start);
+            return new LaunchResult(ip, true, elapsedMillis(start), null);
+        }
+        catch (WebbException e) {
+            Metrics.CAST_FAILURES.increment();
+            return new LaunchResult(ip, false, elapsedMillis(start), e.getMessage());
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Open a connection to a device in the background so the next request can reuse it
+     * @param ip device ip
+     * @return future that completes when the connection is ready or the attempt failed, already false if the device
+     * is unreachable or too many warm ups are queued
+     */
+    public Future<Boolean> warm(final String ip) {
+        // A launch waits for its warm up, which would only delay the fast failure of a dead device
+        if (reachability.isUnreachable(ip))
+            return skippedWarmUp();
+        try {
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        query(ip, "/", DEFAULT_CONNECT_TIMEOUT);
+                        return true;
+                    }
+                    catch (WebbException e) {
+                        logger.info(String.format("Failed to warm connection to %s: %s", ip, e.getMessage()));
+                        return false;
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // Warming is only an optimization, a large group skips it for the devices that do not fit
+            logger.info(String.format("Too many connections warming, skipping %s", ip));
+            return skippedWarmUp();
+        }
+    }
+
+    /**
+     * @return future of a warm up that was not attempted, already completed with false
+     */
+    private static Future<Boolean> skippedWarmUp() {
+        FutureTask<Boolean> skipped = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return false;
+            }
+        });
+        skipped.run();
+        return skipped;
+    }
+
+    /**
+     * Run a request on the client's bounded executor
+     * @param task request
+     * @param <T> result type
+     * @return future result
+     * @throws java.util.concurrent.RejectedExecutionException if too many requests are already queued
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+}
@@ -0,0 +1,174 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probes a list of hosts with a bounded number of concurrent workers. Each hit is passed to the listener as soon as
+ * it is found.
+ */
+public class IpSweeper {
+
+    /**
+     * Check a single host
+     */
+    public interface Probe {
+        /**
+         * Probe a host. Called from a sweep worker thread.
+         * @param ip host to probe
+         * @return true if the host is a hit
+         */
+        boolean probe(String ip);
+    }
+
+    /**
+     * Receives sweep results. Called from a sweep worker thread.
+     */
+    public interface Listener {
+        void onHostFound(String ip);
+
+        /**
+         * Called once after the last host has been probed or the sweep has been cancelled
+         * @param probed number of hosts probed
+         * @param found number of hits
+         * @param cancelled true if the sweep was cancelled
+         */
+        void onSweepFinished(int probed, int found, boolean cancelled);
+    }
+
+    private final int concurrency;
+    private final Probe probe;
+    private final Listener listener;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    private final AtomicInteger probed = new AtomicInteger(0);
+    private final AtomicInteger found = new AtomicInteger(0);
+    private final AtomicInteger runningWorkers = new AtomicInteger(0);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final Executor sharedExecutor;
+    private ExecutorService executor;
+
+    /**
+     * Create a sweeper that runs its workers on threads of its own
+     * @param concurrency maximum number of probes in flight
+     * @param probe host check
+     * @param listener result listener
+     */
+    public IpSweeper(int concurrency, Probe probe, Listener listener) {
+        this(concurrency, null, probe, listener);
+    }
+
+    /**
+     * @param concurrency maximum number of probes in flight
+     * @param executor executor to run the workers on or null to create threads for this sweep
+     * @param probe host check
+     * @param listener result listener
+     */
+    public IpSweeper(int concurrency, Executor executor, Probe probe, Listener listener) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be at least one");
+        this.concurrency = concurrency;
+        this.sharedExecutor = executor;
+        this.probe = probe;
+        this.listener = listener;
+    }
+
+    /**
+     * Start probing the hosts in the background. A sweeper can only be started once.
+     * @param ips hosts to probe in order
+     */
+    public void start(List<String> ips) {
+        if (!started.compareAndSet(false, true))
+            throw new IllegalStateException("Sweep already started");
+        final List<String> hosts = new ArrayList<>(ips);
+        int workers = Math.max(1, Math.min(concurrency, hosts.size()));
+        runningWorkers.set(workers);
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                sweep(hosts);
+            }
+        };
+        if (sharedExecutor != null) {
+            for (int index = 0; index < workers; index++)
+                sharedExecutor.execute(worker);
+            return;
+        }
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "IP Sweep " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int index = 0; index < workers; index++)
+            executor.execute(worker);
+        executor.shutdown();
+    }
+
+    /**
+     * Worker loop. Workers pull the next host from a shared index so cancellation does not have to drain a queue.
+     * @param hosts hosts to probe
+     */
+    private void sweep(List<String> hosts) {
+        try {
+            int index;
+            while (!cancelled.get() && (index = nextIndex.getAndIncrement()) < hosts.size()) {
+                String ip = hosts.get(index);
+                boolean hit = probe.probe(ip);
+                probed.incrementAndGet();
+                if (hit && !cancelled.get()) {
+                    found.incrementAndGet();
+                    listener.onHostFound(ip);
+                }
+            }
+        }
+        finally {
+            if (runningWorkers.decrementAndGet() == 0) {
+                try {
+                    listener.onSweepFinished(probed.get(), found.get(), cancelled.get());
+                }
+                finally {
+                    finished.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the sweep. Probes already in flight are allowed to time out but their results are dropped. Workers on a
+     * shared executor are not interrupted.
+     */
+    public void cancel() {
+        cancelled.set(true);
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Block until the last worker has finished and the listener has been told
+     * @param timeout max time to wait
+     * @param unit timeout unit
+     * @return true if the sweep finished before the timeout or was never started
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return !started.get() || finished.await(timeout, unit);
+    }
+}
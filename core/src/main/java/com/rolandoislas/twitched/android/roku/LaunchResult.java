@@ -0,0 +1,46 @@
+package com.rolandoislas.twitched.android.roku;
+
+/**
+ * Outcome of launching a channel on one device
+ */
+public class LaunchResult {
+    private final String ip;
+    private final boolean success;
+    private final long latency;
+    private final String error;
+
+    /**
+     * @param ip device ip
+     * @param success true if the device accepted the launch
+     * @param latency time the launch took in milliseconds
+     * @param error failure reason or null on success
+     */
+    public LaunchResult(String ip, boolean success, long latency, String error) {
+        this.ip = ip;
+        this.success = success;
+        this.latency = latency;
+        this.error = error;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return success ? String.format("%s: ok (%d ms)", ip, latency) :
+                String.format("%s: failed (%s)", ip, error);
+    }
+}
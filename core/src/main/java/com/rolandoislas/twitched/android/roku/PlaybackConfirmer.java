@@ -0,0 +1,126 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confirms that a launch reached the screen by polling the device state instead of trusting the launch response.
+ * Polls go through the shared client so they reuse its keep-alive connection. The delay between polls starts at the
+ * device's round trip time and grows while nothing changes, and drops back whenever the state moves, so a device that
+ * is still loading is polled rarely and one that is about to start playing is polled promptly.
+ */
+public class PlaybackConfirmer {
+    static final long MIN_DELAY = 100;
+    static final long MAX_DELAY = 1000;
+    private static final double BACKOFF = 1.5;
+    private final EcpClient client;
+
+    /**
+     * Reads the polled state from a response
+     */
+    private interface StateReader {
+        String read(String xml) throws XmlPullParserException, IOException;
+    }
+
+    /**
+     * @param client client to poll with
+     */
+    public PlaybackConfirmer(EcpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Wait until a channel is in the foreground
+     * @param ip device ip
+     * @param appId channel id
+     * @param timeoutMillis maximum time to wait
+     * @return milliseconds until the channel was seen or -1 if it was not seen in time
+     */
+    public long awaitApp(String ip, String appId, long timeoutMillis) {
+        return poll(ip, "/query/active-app", appId, timeoutMillis, new StateReader() {
+            @Override
+            public String read(String xml) throws XmlPullParserException, IOException {
+                return PlaybackStateParser.getActiveAppId(xml);
+            }
+        });
+    }
+
+    /**
+     * Wait until the media player is playing
+     * @param ip device ip
+     * @param timeoutMillis maximum time to wait
+     * @return milliseconds until playback was seen or -1 if it was not seen in time
+     */
+    public long awaitPlayback(String ip, long timeoutMillis) {
+        return poll(ip, "/query/media-player", PlaybackStateParser.STATE_PLAY, timeoutMillis, new StateReader() {
+            @Override
+            public String read(String xml) throws XmlPullParserException, IOException {
+                return PlaybackStateParser.getPlayerState(xml);
+            }
+        });
+    }
+
+    /**
+     * Poll a query until it reports a state
+     * @param ip device ip
+     * @param path query path
+     * @param wanted state to wait for
+     * @param timeoutMillis maximum time to wait
+     * @param reader reads the state from a response
+     * @return milliseconds until the state was seen or -1 if it was not seen in time or the thread was interrupted
+     */
+    private long poll(String ip, String path, String wanted, long timeoutMillis, StateReader reader) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long initialDelay = getInitialDelay(ip);
+        long delay = initialDelay;
+        String previous = null;
+        while (true) {
+            // A launch takes at least a round trip to show anything, so wait before every poll including the first
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0)
+                return -1;
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0)
+                return -1;
+            Metrics.CONFIRM_POLLS.increment();
+            String state;
+            try {
+                int timeout = (int) Math.max(1, remaining);
+                state = reader.read(client.query(ip, path, timeout, timeout));
+            }
+            catch (WebbException | XmlPullParserException | IOException e) {
+                // Channels that are starting can stall ECP for a moment, keep polling until the deadline
+                state = null;
+            }
+            if (wanted.equals(state))
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (state != null && previous != null && !state.equals(previous))
+                delay = initialDelay;
+            else
+                delay = Math.min(MAX_DELAY, (long) (delay * BACKOFF));
+            if (state != null)
+                previous = state;
+        }
+    }
+
+    /**
+     * @param ip device ip
+     * @return first poll delay: the device's round trip time, at least the minimum delay
+     */
+    private long getInitialDelay(String ip) {
+        ReachabilityTracker.Health health = client.getReachability().getHealth(ip);
+        long rtt = health == null ? 0 : health.getRtt();
+        return Math.min(MAX_DELAY, Math.max(MIN_DELAY, rtt));
+    }
+}
@@ -0,0 +1,70 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Streaming reader for /query/active-app and /query/media-player. Only the first element that answers the question is
+ * read.
+ */
+public class PlaybackStateParser {
+    public static final String STATE_PLAY = "play";
+
+    private PlaybackStateParser() {
+    }
+
+    /**
+     * Get the channel in the foreground
+     * @param xml active-app response body
+     * @return app id or an empty string if the home screen or a screensaver is showing
+     * @throws XmlPullParserException if the document is malformed or is not an active-app document
+     * @throws IOException if the document cannot be read
+     */
+    public static String getActiveAppId(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser parser = startDocument(xml, "active-app");
+        int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth)
+                break;
+            if (event == XmlPullParser.START_TAG && parser.getDepth() == depth + 1 && "app".equals(parser.getName())) {
+                String id = parser.getAttributeValue(null, "id");
+                return id == null ? "" : id;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Get the state of the media player
+     * @param xml media-player response body
+     * @return state such as open, buffer or play, or an empty string if the player reports none
+     * @throws XmlPullParserException if the document is malformed or is not a media-player document
+     * @throws IOException if the document cannot be read
+     */
+    public static String getPlayerState(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser parser = startDocument(xml, "player");
+        String state = parser.getAttributeValue(null, "state");
+        return state == null ? "" : state;
+    }
+
+    /**
+     * Move a parser to the root element
+     * @param xml document
+     * @param root expected root element name
+     * @return parser positioned on the root start tag
+     */
+    private static XmlPullParser startDocument(String xml, String root) throws XmlPullParserException, IOException {
+        XmlPullParser parser = PullParsers.get();
+        parser.setInput(new StringReader(xml));
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG && event != XmlPullParser.END_DOCUMENT)
+            event = parser.next();
+        if (event != XmlPullParser.START_TAG || !root.equals(parser.getName()))
+            throw new XmlPullParserException(String.format("Missing %s element", root));
+        return parser;
+    }
+}
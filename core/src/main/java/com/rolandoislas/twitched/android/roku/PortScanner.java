@@ -0,0 +1,157 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Finds hosts with an open TCP port using non-blocking connects on a single selector. All connects are in flight at
+ * once (up to a limit), so a scan takes roughly one connect timeout regardless of the number of hosts.
+ */
+public class PortScanner {
+
+    /**
+     * Receives hosts as soon as they accept a connection. Called from the scanning thread.
+     */
+    public interface Listener {
+        void onPortOpen(String ip);
+    }
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    private final Logger logger = Logger.getLogger(PortScanner.class.getSimpleName());
+    private final int port;
+    private final int timeoutMillis;
+    private final int maxInFlight;
+    private volatile boolean cancelled;
+    private volatile Selector selector;
+
+    /**
+     * @param port port to connect to
+     * @param timeoutMillis time to wait for a batch of connects
+     */
+    public PortScanner(int port, int timeoutMillis) {
+        this(port, timeoutMillis, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param port port to connect to
+     * @param timeoutMillis time to wait for a batch of connects
+     * @param maxInFlight maximum number of sockets open at once
+     */
+    public PortScanner(int port, int timeoutMillis, int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Max in flight must be at least one");
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Scan the hosts. Blocks the calling thread.
+     * @param ips hosts to connect to
+     * @param listener optional listener notified of each open host
+     * @return hosts with the port open in the order they answered
+     * @throws IOException if the selector could not be opened
+     */
+    public List<String> scan(List<String> ips, Listener listener) throws IOException {
+        List<String> open = new ArrayList<>();
+        selector = Selector.open();
+        try {
+            for (int batchStart = 0; batchStart < ips.size() && !cancelled; batchStart += maxInFlight)
+                scanBatch(ips.subList(batchStart, Math.min(ips.size(), batchStart + maxInFlight)), open, listener);
+        }
+        finally {
+            selector.close();
+        }
+        return open;
+    }
+
+    /**
+     * Start a connect to every host in the batch and wait until they have all completed or the timeout passes
+     */
+    private void scanBatch(List<String> batch, List<String> open, Listener listener) throws IOException {
+        for (String ip : batch) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(new InetSocketAddress(ip, port))) {
+                    channel.close();
+                    found(ip, open, listener);
+                }
+                else
+                    channel.register(selector, SelectionKey.OP_CONNECT, ip);
+            }
+            catch (IOException | IllegalArgumentException e) {
+                logger.fine(String.format("Failed to start connect to %s: %s", ip, e.getMessage()));
+                closeQuietly(channel);
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!cancelled && !selector.keys().isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            selector.select(remaining);
+            Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                SelectionKey key = selected.next();
+                selected.remove();
+                SocketChannel channel = (SocketChannel) key.channel();
+                String ip = (String) key.attachment();
+                boolean connected = false;
+                try {
+                    connected = channel.finishConnect();
+                }
+                catch (IOException ignore) {
+                    // Refused or unreachable
+                }
+                if (connected)
+                    found(ip, open, listener);
+                key.cancel();
+                closeQuietly(channel);
+            }
+        }
+        // Abandon anything that did not answer in time
+        for (SelectionKey key : selector.keys()) {
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+        selector.selectNow();
+    }
+
+    private static void found(String ip, List<String> open, Listener listener) {
+        open.add(ip);
+        if (listener != null)
+            listener.onPortOpen(ip);
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException ignore) { }
+    }
+
+    /**
+     * Stop a running scan. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        Selector selector = this.selector;
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,33 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Per thread pull parsers shared by the ECP response readers so each thread creates only one
+ */
+class PullParsers {
+    private static final ThreadLocal<XmlPullParser> parsers = new ThreadLocal<XmlPullParser>() {
+        @Override
+        protected XmlPullParser initialValue() {
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+                return parser;
+            } catch (XmlPullParserException e) {
+                throw new IllegalStateException("No XML pull parser available", e);
+            }
+        }
+    };
+
+    private PullParsers() {
+    }
+
+    /**
+     * @return the calling thread's parser, callers must set its input
+     */
+    static XmlPullParser get() {
+        return parsers.get();
+    }
+}
@@ -0,0 +1,181 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a rolling estimate of how responsive each Roku is. Every probe or request outcome updates an exponentially
+ * weighted round trip time and failure rate. A device that failed several times in a row is considered unreachable
+ * for a while so requests to it can fail immediately instead of waiting out a connect timeout.
+ */
+public class ReachabilityTracker {
+    static final int UNREACHABLE_FAILURES = 2;
+    static final long UNREACHABLE_TTL = TimeUnit.MINUTES.toMillis(2);
+    private static final double WEIGHT = 0.25;
+    // Round trip times closer than this are ranked equally so jitter does not reorder the device list
+    private static final long RTT_BUCKET = 25;
+    private static final double FAILURE_RATE_BUCKET = 0.1;
+    private final Map<String, Health> devices = new HashMap<>();
+
+    /**
+     * Health estimate of one device
+     */
+    public static class Health {
+        private double rtt = -1;
+        private double failureRate;
+        private int consecutiveFailures;
+        private long lastFailure;
+
+        Health() {
+        }
+
+        private Health(Health health) {
+            rtt = health.rtt;
+            failureRate = health.failureRate;
+            consecutiveFailures = health.consecutiveFailures;
+            lastFailure = health.lastFailure;
+        }
+
+        /**
+         * @return weighted round trip time in milliseconds or -1 if the device never answered
+         */
+        public long getRtt() {
+            return Math.round(rtt);
+        }
+
+        /**
+         * @return weighted share of failed probes from 0 to 1
+         */
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * @param now epoch millis
+         * @return true if recent probes failed often enough that requests should not be attempted
+         */
+        boolean isUnreachable(long now) {
+            return consecutiveFailures >= UNREACHABLE_FAILURES && now - lastFailure < UNREACHABLE_TTL;
+        }
+    }
+
+    /**
+     * Record a device answering
+     * @param ip device ip
+     * @param rttMillis time the request took in milliseconds
+     */
+    public synchronized void recordSuccess(String ip, long rttMillis) {
+        Health health = getOrCreate(ip);
+        health.rtt = health.rtt < 0 ? rttMillis : health.rtt + WEIGHT * (rttMillis - health.rtt);
+        health.failureRate -= WEIGHT * health.failureRate;
+        health.consecutiveFailures = 0;
+    }
+
+    /**
+     * Record a device not answering
+     * @param ip device ip
+     */
+    public void recordFailure(String ip) {
+        recordFailure(ip, System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(String ip, long now) {
+        Health health = getOrCreate(ip);
+        health.failureRate += WEIGHT * (1 - health.failureRate);
+        health.consecutiveFailures++;
+        health.lastFailure = now;
+    }
+
+    /**
+     * Check whether requests to a device should fail without being sent
+     * @param ip device ip
+     * @return true if the device recently failed repeatedly
+     */
+    public boolean isUnreachable(String ip) {
+        return isUnreachable(ip, System.currentTimeMillis());
+    }
+
+    synchronized boolean isUnreachable(String ip, long now) {
+        Health health = devices.get(ip);
+        return health != null && health.isUnreachable(now);
+    }
+
+    /**
+     * Get the health estimate of a device
+     * @param ip device ip
+     * @return copy of the estimate or null if the device was never probed
+     */
+    public synchronized Health getHealth(String ip) {
+        Health health = devices.get(ip);
+        return health == null ? null : new Health(health);
+    }
+
+    /**
+     * Order devices from most to least healthy: reachable before unreachable, then by failure rate and round trip
+     * time. Devices that were never probed come after those that answered. Ties keep their order.
+     * @param rokus devices to sort
+     * @return sorted copy
+     */
+    public List<RokuDevice> sort(List<RokuDevice> rokus) {
+        final long now = System.currentTimeMillis();
+        final Map<String, Health> snapshot = new HashMap<>();
+        synchronized (this) {
+            for (RokuDevice roku : rokus) {
+                Health health = devices.get(roku.getIp());
+                if (health != null)
+                    snapshot.put(roku.getIp(), new Health(health));
+            }
+        }
+        List<RokuDevice> sorted = new ArrayList<>(rokus);
+        Collections.sort(sorted, new Comparator<RokuDevice>() {
+            @Override
+            public int compare(RokuDevice first, RokuDevice second) {
+                Health firstHealth = snapshot.get(first.getIp());
+                Health secondHealth = snapshot.get(second.getIp());
+                int compared = compareBoolean(isUnreachable(firstHealth, now), isUnreachable(secondHealth, now));
+                if (compared != 0)
+                    return compared;
+                compared = compareBoolean(firstHealth == null || firstHealth.rtt < 0,
+                        secondHealth == null || secondHealth.rtt < 0);
+                if (compared != 0 || firstHealth == null || secondHealth == null)
+                    return compared;
+                compared = compareLong(Math.round(firstHealth.failureRate / FAILURE_RATE_BUCKET),
+                        Math.round(secondHealth.failureRate / FAILURE_RATE_BUCKET));
+                if (compared != 0)
+                    return compared;
+                return compareLong(firstHealth.getRtt() / RTT_BUCKET, secondHealth.getRtt() / RTT_BUCKET);
+            }
+        });
+        return sorted;
+    }
+
+    private Health getOrCreate(String ip) {
+        Health health = devices.get(ip);
+        if (health == null) {
+            health = new Health();
+            devices.put(ip, health);
+        }
+        return health;
+    }
+
+    private static boolean isUnreachable(Health health, long now) {
+        return health != null && health.isUnreachable(now);
+    }
+
+    private static int compareBoolean(boolean first, boolean second) {
+        return first == second ? 0 : first ? 1 : -1;
+    }
+
+    private static int compareLong(long first, long second) {
+        return first < second ? -1 : first == second ? 0 : 1;
+    }
+}
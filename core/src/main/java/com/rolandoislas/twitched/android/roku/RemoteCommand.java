@@ -0,0 +1,129 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One ECP remote control request. Keys are ECP key names such as Select, Play or Rev.
+ */
+public class RemoteCommand {
+    public enum Type {
+        KEYPRESS("keypress"),
+        KEYDOWN("keydown"),
+        KEYUP("keyup"),
+        INPUT("input");
+
+        private final String path;
+
+        Type(String path) {
+            this.path = path;
+        }
+    }
+
+    private final Type type;
+    private final String argument;
+
+    private RemoteCommand(Type type, String argument) {
+        this.type = type;
+        this.argument = argument;
+    }
+
+    /**
+     * Press and release a key
+     * @param key ECP key name
+     * @return command
+     */
+    public static RemoteCommand keypress(String key) {
+        return new RemoteCommand(Type.KEYPRESS, encode(key));
+    }
+
+    /**
+     * Hold a key down until a matching {@link #keyup(String)}
+     * @param key ECP key name
+     * @return command
+     */
+    public static RemoteCommand keydown(String key) {
+        return new RemoteCommand(Type.KEYDOWN, encode(key));
+    }
+
+    /**
+     * Release a held key
+     * @param key ECP key name
+     * @return command
+     */
+    public static RemoteCommand keyup(String key) {
+        return new RemoteCommand(Type.KEYUP, encode(key));
+    }
+
+    /**
+     * Send parameters to the channel in the foreground
+     * @param parameters query parameters
+     * @return command
+     */
+    public static RemoteCommand input(Map<String, String> parameters) {
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (query.length() > 0)
+                query.append('&');
+            query.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+        }
+        return new RemoteCommand(Type.INPUT, query.toString());
+    }
+
+    /**
+     * Type text into the focused keyboard, one literal keypress per character
+     * @param text text to type
+     * @return commands
+     */
+    public static List<RemoteCommand> literal(String text) {
+        List<RemoteCommand> commands = new ArrayList<>(text.length());
+        for (int index = 0; index < text.length(); index = text.offsetByCodePoints(index, 1)) {
+            String character = new String(Character.toChars(text.codePointAt(index)));
+            commands.add(new RemoteCommand(Type.KEYPRESS, "Lit_" + encode(character)));
+        }
+        return commands;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the opposite command for a held key or null if this is not a keydown
+     */
+    RemoteCommand getRelease() {
+        return type == Type.KEYDOWN ? new RemoteCommand(Type.KEYUP, argument) : null;
+    }
+
+    /**
+     * @return encoded key name or input query
+     */
+    String getArgument() {
+        return argument;
+    }
+
+    /**
+     * @return ECP path starting with a slash
+     */
+    public String getPath() {
+        if (type == Type.INPUT)
+            return argument.isEmpty() ? "/input" : "/input?" + argument;
+        return String.format("/%s/%s", type.path, argument);
+    }
+
+    @Override
+    public String toString() {
+        return getPath();
+    }
+}
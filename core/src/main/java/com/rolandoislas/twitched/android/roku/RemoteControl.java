@@ -0,0 +1,162 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Histogram;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.task.SerialQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sends sequences of ECP remote control commands. Commands go out one after another over the client's keep-alive
+ * connection to the device, spaced by a pacing delay so the Roku has time to act on each key. Sequences to the same
+ * device never interleave. Commands are never retried, since a keypress that timed out may still have landed and
+ * sending it again would press the key twice. Keys left held by a failed sequence are released.
+ */
+public class RemoteControl {
+    public static final long DEFAULT_PACING = 100;
+    private final Logger logger = Logger.getLogger(RemoteControl.class.getSimpleName());
+    private final EcpClient client;
+    private final SerialQueue queue;
+    private final ConcurrentMap<String, Long> modelPacing = new ConcurrentHashMap<>();
+
+    /**
+     * @param client client commands are sent with
+     * @param scheduler scheduler sequences run on
+     */
+    public RemoteControl(EcpClient client, TaskScheduler scheduler) {
+        this.client = client;
+        // Sequences wait in the queue instead of holding scheduler threads while another one runs
+        queue = new SerialQueue(scheduler);
+    }
+
+    /**
+     * Set the delay between the start of one command and the next for a model
+     * @param model device model name
+     * @param pacing delay in milliseconds
+     */
+    public void setPacing(String model, long pacing) {
+        modelPacing.put(model, pacing);
+    }
+
+    /**
+     * @param model device model name or null if unknown
+     * @return delay in milliseconds between commands sent to the model
+     */
+    public long getPacing(String model) {
+        Long pacing = model == null ? null : modelPacing.get(model);
+        return pacing == null ? DEFAULT_PACING : pacing;
+    }
+
+    /**
+     * Send commands to a device using the pacing of its model. Command latency is also recorded per model.
+     * @param device device
+     * @param commands commands in the order they are sent
+     * @return future of the number of commands sent, failing with a WebbException at the first rejected command
+     */
+    public Future<Integer> send(RokuDevice device, List<RemoteCommand> commands) {
+        return send(device.getIp(), device.getModel(), commands, getPacing(device.getModel()));
+    }
+
+    /**
+     * Send commands to a device
+     * @param ip device ip
+     * @param commands commands in the order they are sent
+     * @param pacing delay in milliseconds between the start of one command and the next
+     * @return future of the number of commands sent, failing with a WebbException at the first rejected command
+     */
+    public Future<Integer> send(String ip, List<RemoteCommand> commands, long pacing) {
+        return send(ip, null, commands, pacing);
+    }
+
+    private Future<Integer> send(final String ip, final String model, List<RemoteCommand> commands,
+                                 final long pacing) {
+        final List<RemoteCommand> sequence = new ArrayList<>(commands);
+        return queue.submit(ip, new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                return run(ip, model, sequence, pacing);
+            }
+        });
+    }
+
+    /**
+     * Send a sequence, waiting out the pacing between commands
+     * @param ip device ip
+     * @param model device model or null to only record the overall metrics
+     * @param commands commands in order
+     * @param pacing delay in milliseconds between the start of one command and the next
+     * @return number of commands sent
+     * @throws WebbException if a command failed
+     */
+    private int run(String ip, String model, List<RemoteCommand> commands, long pacing) throws InterruptedException {
+        Histogram modelLatency = model == null ? null :
+                Metrics.histogram(String.format("remote.command.%s", model), Metrics.UNIT_MILLIS);
+        Map<String, RemoteCommand> held = new LinkedHashMap<>();
+        long sequenceStart = System.nanoTime();
+        long nextStart = sequenceStart;
+        int sent = 0;
+        try {
+            for (RemoteCommand command : commands) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(nextStart - System.nanoTime());
+                if (wait > 0)
+                    Thread.sleep(wait);
+                long start = System.nanoTime();
+                nextStart = start + TimeUnit.MILLISECONDS.toNanos(pacing);
+                try {
+                    client.postOnce(ip, command.getPath());
+                }
+                catch (WebbException e) {
+                    Metrics.REMOTE_FAILURES.increment();
+                    logger.info(String.format("%s to %s failed: %s", command, ip, e.getMessage()));
+                    throw e;
+                }
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                Metrics.REMOTE_COMMAND.record(latency);
+                if (modelLatency != null)
+                    modelLatency.record(latency);
+                if (command.getType() == RemoteCommand.Type.KEYDOWN)
+                    held.put(command.getArgument(), command.getRelease());
+                else if (command.getType() == RemoteCommand.Type.KEYUP)
+                    held.remove(command.getArgument());
+                sent++;
+            }
+        }
+        finally {
+            release(ip, held);
+        }
+        long elapsed = System.nanoTime() - sequenceStart;
+        if (sent > 1)
+            Metrics.REMOTE_THROUGHPUT.record(sent * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1));
+        logger.info(String.format(Locale.US, "Sent %d commands to %s in %d ms", sent, ip,
+                TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        return sent;
+    }
+
+    /**
+     * Release keys a sequence left held, ignoring failures
+     * @param ip device ip
+     * @param held keyup commands of the held keys
+     */
+    private void release(String ip, Map<String, RemoteCommand> held) {
+        for (RemoteCommand keyup : held.values()) {
+            try {
+                client.postOnce(ip, keyup.getPath());
+            }
+            catch (WebbException e) {
+                logger.info(String.format("Failed to release %s on %s: %s", keyup, ip, e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.task.CoalescingQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.rolandoislas.twitched.android.twitch.CastTarget;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Casts Twitch targets to Rokus. Launches are queued per device, so each Roku handles one at a time and only the
+ * newest waiting cast runs. A device's slot in the queue is held for the launch request only. A device that stops
+ * answering is followed to its new ip if discovery finds it there. The channel opening is confirmed by polling on the
+ * scheduler and playback is watched in the background to measure the whole cast.
+ */
+public class RokuCaster {
+    private static final long CAST_LATENCY_BUDGET = 1000;
+    private static final long WARM_WAIT = 2000;
+    private static final long WARM_POLL = 50;
+    private static final long RELOCATE_WAIT = 2000;
+    private static final long APP_WAIT = 10000;
+    private static final long PLAYBACK_WAIT = 30000;
+    private final Logger logger = Logger.getLogger(RokuCaster.class.getSimpleName());
+    private final EcpClient client;
+    private final TaskScheduler scheduler;
+    private final CoalescingQueue queue;
+    private final RokuDiscovery discovery;
+    private final Map<String, Future<Boolean>> warmConnections = new ConcurrentHashMap<>();
+
+    /**
+     * @param client client launches are sent with
+     * @param scheduler scheduler group casts and playback watches run on
+     * @param queue queue launches are serialized per device on
+     * @param discovery discovery used to find devices that moved or null to never retry at a new ip
+     */
+    public RokuCaster(EcpClient client, TaskScheduler scheduler, CoalescingQueue queue, RokuDiscovery discovery) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.queue = queue;
+        this.discovery = discovery;
+    }
+
+    /**
+     * Build the launch parameters for a target
+     * @param target stream, video or clip to play
+     * @return query without the leading question mark
+     */
+    public static String createLaunchQuery(CastTarget target) {
+        String contentId;
+        String mediaType;
+        switch (target.getType()) {
+            case STREAM:
+                contentId = String.format("twitch_stream_%s", target.getId());
+                mediaType = "live";
+                break;
+            case VIDEO:
+                contentId = String.format("twitch_video_%s", target.getId());
+                mediaType = "special";
+                break;
+            case CLIP:
+                contentId = String.format("twitch_clip_%s", target.getId());
+                mediaType = "special";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown target type: " + target.getType());
+        }
+        return String.format(Locale.US, "contentId=%s&mediaType=%s&time=%d", contentId, mediaType,
+                target.getOffset());
+    }
+
+    /**
+     * Open connections to devices ahead of a cast. Launches to them wait briefly for the connection so they reuse it
+     * instead of opening a second one.
+     * @param ips device ips, empty ones are ignored
+     */
+    public void warm(Collection<String> ips) {
+        for (String ip : ips) {
+            if (!ip.isEmpty())
+                warmConnections.put(ip, client.warm(ip));
+        }
+    }
+
+    /**
+     * Cast to one device without a callback
+     * @see #cast(Object, String, String, String, CastTarget, long, TaskScheduler.Callback)
+     */
+    public Future<CastResult> cast(String ip, String serial, String appId, CastTarget target, long start) {
+        return cast(this, ip, serial, appId, target, start, null);
+    }
+
+    /**
+     * Cast to one device. The launch is queued behind a cast still running on the device, replacing a cast that is
+     * waiting there. Once the device accepts it the next cast may launch while the channel is waited for here.
+     * @param owner owner the cast's callback is cancelled with
+     * @param ip device ip
+     * @param serial device serial used to follow it to a new ip or empty if unknown
+     * @param appId channel to launch
+     * @param target stream, video or clip to play
+     * @param start time the cast was requested
+     * @param callback notified on the scheduler's callback executor, may be null
+     * @return future of the result, failing with a CancellationException if a newer cast replaced it or with a
+     * WebbException if the device did not accept the launch
+     */
+    public Future<CastResult> cast(Object owner, final String ip, final String serial, final String appId,
+                                   final CastTarget target, final long start,
+                                   TaskScheduler.Callback<CastResult> callback) {
+        final Future<String> launched = queue.submit(ip, new Callable<String>() {
+            @Override
+            public String call() {
+                String query = createLaunchQuery(target);
+                awaitWarmConnection(ip);
+                long launchStart = System.nanoTime();
+                String launchedIp = launch(ip, serial, appId, query);
+                Metrics.CAST_ROUND_TRIP.recordSince(launchStart);
+                recordCastLatency(start);
+                return launchedIp;
+            }
+        });
+        Metrics.CAST_QUEUE_DEPTH.record(queue.getPendingCount());
+        return scheduler.submit(owner, null, new Callable<CastResult>() {
+            @Override
+            public CastResult call() throws Exception {
+                String launchedIp = await(launched);
+                // The launch response only means the request was accepted, wait for the channel to show up
+                return new CastResult(launchedIp, confirmPlayback(launchedIp, appId, true, start));
+            }
+        }, callback);
+    }
+
+    /**
+     * Cast to several devices at once without a callback
+     * @see #castToGroup(Object, Map, CastTarget, long, TaskScheduler.Callback)
+     */
+    public Future<List<LaunchResult>> castToGroup(Map<String, String> appIds, CastTarget target, long start) {
+        return castToGroup(this, appIds, target, start, null);
+    }
+
+    /**
+     * Cast to several devices at once. Each launch is queued per device, so a device still busy with an earlier cast
+     * gets this one next. Channels are watched for in the background.
+     * @param owner owner the cast's callback is cancelled with
+     * @param appIds channel to launch keyed by device ip
+     * @param target stream, video or clip to play
+     * @param start time the cast was requested
+     * @param callback notified on the scheduler's callback executor, may be null
+     * @return future of one result per device in the order of the map, replaced launches are reported as failed
+     */
+    public Future<List<LaunchResult>> castToGroup(Object owner, final Map<String, String> appIds,
+                                                  CastTarget target, final long start,
+                                                  TaskScheduler.Callback<List<LaunchResult>> callback) {
+        final String query = createLaunchQuery(target);
+        final Map<String, Future<LaunchResult>> queued = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> member : appIds.entrySet()) {
+            queued.put(member.getKey(), queue.submit(member.getKey(), new Callable<LaunchResult>() {
+                @Override
+                public LaunchResult call() {
+                    awaitWarmConnection(member.getKey());
+                    return client.tryLaunch(member.getKey(), member.getValue(), query);
+                }
+            }));
+        }
+        Metrics.CAST_QUEUE_DEPTH.record(queue.getPendingCount());
+        return scheduler.submit(owner, null, new Callable<List<LaunchResult>>() {
+            @Override
+            public List<LaunchResult> call() throws InterruptedException {
+                List<LaunchResult> results = new ArrayList<>();
+                boolean first = true;
+                for (Map.Entry<String, Future<LaunchResult>> launch : queued.entrySet()) {
+                    LaunchResult result;
+                    try {
+                        result = launch.getValue().get();
+                    } catch (CancellationException e) {
+                        Metrics.CAST_DROPPED.increment();
+                        result = new LaunchResult(launch.getKey(), false, 0, "Replaced by a newer share");
+                    } catch (ExecutionException e) {
+                        result = new LaunchResult(launch.getKey(), false, 0, String.valueOf(e.getCause()));
+                    }
+                    results.add(result);
+                    logger.info(String.format("Group cast %s", result));
+                    if (!result.isSuccess())
+                        continue;
+                    if (first)
+                        recordCastLatency(start);
+                    first = false;
+                    confirmPlayback(result.getIp(), appIds.get(result.getIp()), false, start);
+                }
+                return results;
+            }
+        }, callback);
+    }
+
+    /**
+     * Wait for a cast
+     * @param cast future returned by a cast
+     * @param <T> result type
+     * @return result of the cast
+     * @throws CancellationException if a newer cast replaced it
+     * @throws Exception the exception the cast failed with
+     */
+    public static <T> T await(Future<T> cast) throws Exception {
+        try {
+            return cast.get();
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Launch on a device. If it cannot be reached and discovery finds the same serial at a new ip, the launch is
+     * retried there. The relocation is only waited for while a search is running or once the registry already has the
+     * device elsewhere, so a dead device fails right away; a short search is sent in the background instead so the
+     * next cast can follow a device that moved.
+     * @param ip device ip
+     * @param serial device serial or empty if unknown
+     * @param appId channel to launch
+     * @param query launch parameters
+     * @return ip that accepted the launch
+     * @throws WebbException if the launch failed
+     */
+    private String launch(String ip, String serial, String appId, String query) {
+        try {
+            client.launch(ip, appId, query);
+            return ip;
+        }
+        catch (WebbException e) {
+            // A Roku that moved looks unreachable at its old ip, so unreachable devices are looked up too
+            if (e.getResponse() != null || discovery == null || serial == null || serial.isEmpty())
+                throw e;
+            if (!discovery.isSearching() && discovery.resolveIp(serial, ip).equals(ip)) {
+                discovery.refresh();
+                throw e;
+            }
+            RokuDevice relocated;
+            try {
+                relocated = discovery.awaitRelocation(serial, ip, RELOCATE_WAIT);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            if (relocated == null)
+                throw e;
+            logger.info(String.format("Roku %s moved from %s to %s", serial, ip, relocated.getIp()));
+            client.launch(relocated.getIp(), appId, query);
+            return relocated.getIp();
+        }
+    }
+
+    /**
+     * Wait for the warm up request to a device so the launch reuses its connection. Waiting stops early once a newer
+     * cast is queued for the device, so it is not held up by this launch's warm up, and is skipped for unreachable
+     * devices since their launch fails without a connection.
+     * @param ip device ip
+     */
+    private void awaitWarmConnection(String ip) {
+        Future<Boolean> warmConnection = warmConnections.remove(ip);
+        if (warmConnection == null || client.getReachability().isUnreachable(ip))
+            return;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARM_WAIT);
+        try {
+            while (true) {
+                try {
+                    warmConnection.get(WARM_POLL, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    if (queue.hasPending(ip) || System.nanoTime() >= deadline) {
+                        logger.info(String.format("Connection warm up to %s did not finish in time", ip));
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.info(String.format("Connection warm up did not finish: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Confirm a launch by polling the device. Times from the cast request to the channel opening and to playback
+     * starting are recorded. Playback is watched in the background so it is measured after the caller moves on.
+     * @param ip device the launch was sent to
+     * @param appId launched channel
+     * @param wait wait here for the channel to open instead of watching for it in the background
+     * @param start time the cast was requested
+     * @return false if the channel was waited for and did not open
+     */
+    private boolean confirmPlayback(final String ip, final String appId, final boolean wait, final long start) {
+        final PlaybackConfirmer confirmer = new PlaybackConfirmer(client);
+        if (wait && !awaitApp(confirmer, ip, appId, start))
+            return false;
+        scheduler.submit(this, null, new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (!wait && !awaitApp(confirmer, ip, appId, start))
+                    return null;
+                if (confirmer.awaitPlayback(ip, PLAYBACK_WAIT) < 0) {
+                    logger.info(String.format(Locale.US, "%s did not start playback within %d ms", ip,
+                            PLAYBACK_WAIT));
+                    return null;
+                }
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                Metrics.TIME_TO_PLAYBACK.record(latency);
+                logger.info(String.format(Locale.US, "Playback started on %s %d ms after the cast", ip, latency));
+                return null;
+            }
+        }, null);
+        return true;
+    }
+
+    /**
+     * Wait for a launched channel to reach the foreground
+     * @param confirmer confirmer to poll with
+     * @param ip device the launch was sent to
+     * @param appId launched channel
+     * @param start time the cast was requested
+     * @return true if the channel opened in time
+     */
+    private boolean awaitApp(PlaybackConfirmer confirmer, String ip, String appId, long start) {
+        if (confirmer.awaitApp(ip, appId, APP_WAIT) < 0) {
+            Metrics.CAST_UNCONFIRMED.increment();
+            logger.warning(String.format(Locale.US, "%s did not open %s within %d ms", ip, appId, APP_WAIT));
+            return false;
+        }
+        Metrics.TIME_TO_APP.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Log the time from the cast request to the device accepting the launch
+     * @param start time the cast was requested
+     */
+    private void recordCastLatency(long start) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Metrics.CAST_END_TO_END.record(latency);
+        if (latency > CAST_LATENCY_BUDGET)
+            logger.warning(String.format(Locale.US, "Cast took %d ms, over the %d ms budget", latency,
+                    CAST_LATENCY_BUDGET));
+        else
+            logger.info(String.format(Locale.US, "Cast took %d ms", latency));
+    }
+}
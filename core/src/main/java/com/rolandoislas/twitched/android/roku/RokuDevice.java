@@ -0,0 +1,86 @@
+package com.rolandoislas.twitched.android.roku;
+
+/**
+ * A discovered Roku
+ */
+public class RokuDevice {
+    private final String serial;
+    private final String ip;
+    private final String name;
+    private final String model;
+    private final String networkType;
+    private final String powerMode;
+    private final long lastSeen;
+    private final long latency;
+
+    /**
+     * @param serial serial number or UDN that identifies the device across IP changes
+     * @param ip last known ip
+     * @param name user device name
+     * @param model model name
+     * @param networkType wifi or ethernet
+     * @param powerMode power mode when last seen
+     * @param lastSeen epoch millis the device last answered
+     * @param latency ECP response time in milliseconds
+     */
+    public RokuDevice(String serial, String ip, String name, String model, String networkType, String powerMode,
+                      long lastSeen, long latency) {
+        this.serial = serial;
+        this.ip = ip;
+        this.name = name;
+        this.model = model;
+        this.networkType = networkType;
+        this.powerMode = powerMode;
+        this.lastSeen = lastSeen;
+        this.latency = latency;
+    }
+
+    /**
+     * Create a device from a device-info response
+     * @param ip ip that answered
+     * @param info parsed device info
+     * @param lastSeen epoch millis the device answered
+     * @param latency ECP response time in milliseconds
+     */
+    public RokuDevice(String ip, DeviceInfo info, long lastSeen, long latency) {
+        this(info.getIdentifier(ip), ip, info.getUserDeviceName(), info.getModelName(), info.getNetworkType(),
+                info.getPowerMode(), lastSeen, latency);
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    public String getPowerMode() {
+        return powerMode;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return name + " - " + ip;
+    }
+}
@@ -0,0 +1,473 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.metrics.Metrics;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Finds Rokus and keeps a registry of them. A search sends an SSDP M-SEARCH and sweeps the local subnets if nothing
+ * answers. Between searches SSDP announcements and health checks keep the registry current. All work runs on the task
+ * scheduler, so discovery can be driven from the app or from a plain JVM.
+ */
+public class RokuDiscovery {
+
+    /**
+     * Receives device events. Called from worker threads.
+     */
+    public interface Listener {
+        /**
+         * A search or announcement verified a Roku and it was added to or updated in the registry
+         * @param device device with its current ip and info
+         */
+        void onDeviceFound(RokuDevice device);
+
+        /**
+         * A known Roku answered a health check
+         * @param device device with its updated latency
+         */
+        void onDeviceAnswered(RokuDevice device);
+    }
+
+    private static final int SWEEP_CONCURRENCY = 32;
+    private static final int PORT_SCAN_TIMEOUT = 500;
+    private static final int SSDP_TIMEOUT = 3000;
+    private static final int SSDP_REFRESH_TIMEOUT = 1500;
+    private static final int FAST_CONNECT_TIMEOUT = 50;
+    private static final int HEALTH_CHECK_TIMEOUT = 1000;
+    private static final long SSDP_VERIFY_WAIT = 2000;
+    private static final String TASK_SEARCH = "discovery.search";
+    private static final String TASK_REFRESH = "discovery.refresh";
+    private static final String TASK_VERIFY = "discovery.verify.";
+    private final Logger logger = Logger.getLogger(RokuDiscovery.class.getSimpleName());
+    private final TaskScheduler scheduler;
+    private final EcpClient client;
+    private final DeviceRegistry registry;
+    private final Listener listener;
+    private final Set<String> verifiedIps;
+    private final SsdpDiscovery ssdpDiscovery;
+    private final AtomicBoolean firstDeviceFound = new AtomicBoolean(true);
+    private volatile PortScanner portScanner;
+    private volatile IpSweeper ipSweeper;
+    private volatile long searchStart;
+    private volatile List<Future<Boolean>> ssdpVerifications;
+
+    /**
+     * Create a discovery that searches the SSDP multicast group
+     * @param scheduler scheduler searches and probes run on
+     * @param client client devices are queried with
+     * @param registry registry found devices are stored in
+     * @param listener device event listener
+     */
+    public RokuDiscovery(TaskScheduler scheduler, EcpClient client, DeviceRegistry registry, Listener listener) {
+        this(scheduler, client, registry, listener, null);
+    }
+
+    /**
+     * @param scheduler scheduler searches and probes run on
+     * @param client client devices are queried with
+     * @param registry registry found devices are stored in
+     * @param listener device event listener
+     * @param ssdpAddress address M-SEARCH requests are sent to or null for the SSDP multicast group
+     */
+    public RokuDiscovery(TaskScheduler scheduler, EcpClient client, DeviceRegistry registry, Listener listener,
+                         InetSocketAddress ssdpAddress) {
+        this.scheduler = scheduler;
+        this.client = client;
+        this.registry = registry;
+        this.listener = listener;
+        verifiedIps = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        SsdpDiscovery.Listener ssdpListener = new SsdpDiscovery.Listener() {
+            @Override
+            public void onDeviceAlive(String usn, String ip, int maxAge) {
+                verifyLater(ip);
+            }
+
+            @Override
+            public void onDeviceByeBye(String usn) {
+                removeDevice(SsdpDiscovery.getSerial(usn));
+            }
+        };
+        ssdpDiscovery = ssdpAddress == null ? new SsdpDiscovery(ssdpListener) :
+                new SsdpDiscovery(ssdpListener, ssdpAddress);
+    }
+
+    /**
+     * @return live registry of known Rokus
+     */
+    public DeviceRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Follow SSDP announcements on the scheduler. Calling this again restarts a listener that stopped on an error. On
+     * Android the caller must hold a multicast lock while listening.
+     */
+    public void startListening() {
+        ssdpDiscovery.startListening(scheduler);
+    }
+
+    public void stopListening() {
+        ssdpDiscovery.stopListening();
+    }
+
+    /**
+     * Start a search for Rokus on the network. SSDP is tried first and the subnets are swept if it finds nothing.
+     * If a search is already in flight it is joined and the callback is dropped.
+     * @param callback notified on the scheduler's callback executor when the search finishes, may be null
+     * @return future of the number of Rokus known after the search
+     */
+    public Future<Integer> search(TaskScheduler.Callback<Integer> callback) {
+        final long requested = System.nanoTime();
+        return scheduler.submit(this, TASK_SEARCH, new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                // Reset here rather than on submit, the scheduler only starts a search once the previous one returned
+                searchStart = requested;
+                firstDeviceFound.set(false);
+                verifiedIps.clear();
+                try {
+                    if (!searchSsdp() && !Thread.currentThread().isInterrupted())
+                        searchIps();
+                }
+                finally {
+                    firstDeviceFound.set(true);
+                }
+                return registry.getDevices().size();
+            }
+        }, callback);
+    }
+
+    /**
+     * @return true if a search is in flight
+     */
+    public boolean isSearching() {
+        return scheduler.isRunning(TASK_SEARCH);
+    }
+
+    /**
+     * Stop a running search without notifying its callback
+     */
+    public void cancelSearch() {
+        firstDeviceFound.set(true);
+        scheduler.cancel(TASK_SEARCH);
+        ssdpDiscovery.cancelSearch();
+        PortScanner scanner = portScanner;
+        if (scanner != null)
+            scanner.cancel();
+        IpSweeper sweeper = ipSweeper;
+        if (sweeper != null)
+            sweeper.cancel();
+    }
+
+    /**
+     * Ping every known device in parallel, updating their health estimates and latency. Devices that stop answering
+     * are dropped once they are unreachable and a short SSDP search is sent so any that moved to a new ip are found
+     * again. Nothing is checked while a search is in flight, since the search refreshes every device it finds.
+     */
+    public void checkHealth() {
+        List<RokuDevice> devices = registry.getDevices();
+        if (devices.isEmpty() || scheduler.isRunning(TASK_SEARCH))
+            return;
+        List<String> ips = new ArrayList<>();
+        for (RokuDevice device : devices)
+            ips.add(device.getIp());
+        new IpSweeper(Math.min(ips.size(), SWEEP_CONCURRENCY), scheduler, new IpSweeper.Probe() {
+            @Override
+            public boolean probe(String ip) {
+                long probeStart = System.currentTimeMillis();
+                long rtt;
+                try {
+                    rtt = client.ping(ip, HEALTH_CHECK_TIMEOUT);
+                }
+                catch (WebbException e) {
+                    Metrics.HEALTH_CHECK_FAILURES.increment();
+                    // Drop the device once it is unreachable unless a Roku was seen at the ip meanwhile
+                    if (client.getReachability().isUnreachable(ip))
+                        registry.removeByIp(ip, probeStart);
+                    return false;
+                }
+                RokuDevice device = registry.findByIp(ip);
+                if (device != null) {
+                    RokuDevice updated = new RokuDevice(device.getSerial(), ip, device.getName(), device.getModel(),
+                            device.getNetworkType(), device.getPowerMode(), System.currentTimeMillis(), rtt);
+                    registry.update(updated);
+                    listener.onDeviceAnswered(updated);
+                }
+                return true;
+            }
+        }, new IpSweeper.Listener() {
+            @Override
+            public void onHostFound(String ip) {
+            }
+
+            @Override
+            public void onSweepFinished(int probed, int found, boolean cancelled) {
+                logger.fine(String.format(Locale.US, "Health check: %d of %d answered", found, probed));
+                if (found < probed)
+                    refresh();
+            }
+        }).start(ips);
+    }
+
+    /**
+     * Send a short SSDP search without falling back to an IP sweep. Nothing is sent if a search is in flight.
+     */
+    public void refresh() {
+        if (scheduler.isRunning(TASK_SEARCH))
+            return;
+        scheduler.submit(this, TASK_REFRESH, new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return ssdpDiscovery.search(SSDP_REFRESH_TIMEOUT);
+            }
+        }, null);
+    }
+
+    /**
+     * Get the current ip of a device
+     * @param serial device serial, may be empty
+     * @param fallbackIp ip to use if the device is not known
+     * @return ip
+     */
+    public String resolveIp(String serial, String fallbackIp) {
+        if (serial == null || serial.isEmpty())
+            return fallbackIp;
+        RokuDevice device = registry.findBySerial(serial);
+        return device == null ? fallbackIp : device.getIp();
+    }
+
+    /**
+     * Wait for a device that stopped answering to be found at a different ip. A short SSDP search is sent if none is
+     * running.
+     * @param serial device serial
+     * @param oldIp ip that failed
+     * @param timeoutMillis maximum time to wait
+     * @return device at its new ip or null if it was not found in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public RokuDevice awaitRelocation(final String serial, final String oldIp, long timeoutMillis)
+            throws InterruptedException {
+        final CountDownLatch relocated = new CountDownLatch(1);
+        DeviceRegistry.Listener registryListener = new DeviceRegistry.Listener() {
+            @Override
+            public void onDevicesChanged() {
+                RokuDevice device = registry.findBySerial(serial);
+                if (device != null && !device.getIp().equals(oldIp))
+                    relocated.countDown();
+            }
+        };
+        registry.addListener(registryListener);
+        try {
+            registryListener.onDevicesChanged();
+            verifiedIps.remove(oldIp);
+            refresh();
+            relocated.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            registry.removeListener(registryListener);
+        }
+        RokuDevice device = registry.findBySerial(serial);
+        return device != null && !device.getIp().equals(oldIp) ? device : null;
+    }
+
+    /**
+     * Search for Rokus via SSDP. Replies are verified in the background while the search keeps collecting them, and
+     * verifications still running at the deadline are waited for briefly.
+     * @return true if a Roku was found
+     */
+    private boolean searchSsdp() throws InterruptedException {
+        logger.fine("Starting SSDP search");
+        long ssdpStart = System.nanoTime();
+        List<Future<Boolean>> verifications = new CopyOnWriteArrayList<>();
+        ssdpVerifications = verifications;
+        try {
+            int found = ssdpDiscovery.search(SSDP_TIMEOUT);
+            Metrics.SSDP_SEARCH.recordSince(ssdpStart);
+            logger.fine(String.format(Locale.US, "Search finished: %d responses", found));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        finally {
+            ssdpVerifications = null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SSDP_VERIFY_WAIT);
+        for (Future<Boolean> verification : verifications) {
+            try {
+                verification.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | TimeoutException | CancellationException ignore) {
+                // Late devices are still added when their verification finishes
+            }
+        }
+        return !verifiedIps.isEmpty();
+    }
+
+    /**
+     * Verify an SSDP responder on the scheduler so the receive loop never waits on a device-info query. Concurrent
+     * announcements from the same ip share one query.
+     * @param ip responder ip
+     */
+    private void verifyLater(final String ip) {
+        if (verifiedIps.contains(ip))
+            return;
+        Future<Boolean> verification = scheduler.submit(this, TASK_VERIFY + ip, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return verify(ip, false);
+            }
+        }, null);
+        List<Future<Boolean>> verifications = ssdpVerifications;
+        if (verifications != null)
+            verifications.add(verification);
+    }
+
+    /**
+     * Search for Rokus on every subnet this device is on. ARP neighbors and nearby addresses are tried first and the
+     * number of hosts is capped by the probe budget. Only hosts that accept a connection on the ECP port are queried
+     * for device info.
+     */
+    private void searchIps() throws InterruptedException {
+        logger.fine("Starting IP search");
+        ScanPlanner planner = new ScanPlanner(ScanPlanner.DEFAULT_PROBE_BUDGET);
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces.hasMoreElements()) {
+                NetworkInterface iface = interfaces.nextElement();
+                if (iface.isLoopback() || !iface.isUp())
+                    continue;
+                for (InterfaceAddress address : iface.getInterfaceAddresses()) {
+                    if (address.getAddress() instanceof Inet4Address)
+                        planner.addSubnet(address.getAddress().getHostAddress(), address.getNetworkPrefixLength());
+                }
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+        planner.addArpNeighbors();
+        List<String> ips = planner.plan();
+        // Filter out hosts that do not have the ECP port open
+        PortScanner scanner = new PortScanner(EcpClient.DEFAULT_PORT, PORT_SCAN_TIMEOUT);
+        portScanner = scanner;
+        List<String> openIps;
+        // Without a scan every host is swept, and most of them are not known to have the port open
+        boolean scanFailed = false;
+        long scanStart = System.nanoTime();
+        try {
+            openIps = scanner.scan(ips, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            openIps = ips;
+            scanFailed = true;
+        }
+        finally {
+            portScanner = null;
+        }
+        if (scanner.isCancelled() || Thread.currentThread().isInterrupted())
+            return;
+        Metrics.PORT_SCAN.recordSince(scanStart);
+        logger.fine(String.format(Locale.US, "%d of %d hosts have port %d open", openIps.size(), ips.size(),
+                EcpClient.DEFAULT_PORT));
+        final boolean fastTimeout = scanFailed;
+        final long sweepStart = System.nanoTime();
+        IpSweeper sweeper = new IpSweeper(SWEEP_CONCURRENCY, scheduler, new IpSweeper.Probe() {
+            @Override
+            public boolean probe(String ip) {
+                return verify(ip, fastTimeout);
+            }
+        }, new IpSweeper.Listener() {
+            @Override
+            public void onHostFound(String ip) {
+                logger.fine(String.format("Found Roku at %s", ip));
+            }
+
+            @Override
+            public void onSweepFinished(int probed, int found, boolean cancelled) {
+                logger.fine(String.format(Locale.US, "IP search finished: %d probed, %d found", probed, found));
+                if (cancelled)
+                    return;
+                long sweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sweepStart);
+                Metrics.IP_SWEEP.record(sweepMillis);
+                Metrics.PROBES_PER_SECOND.record(probed * 1000L / Math.max(1, sweepMillis));
+            }
+        });
+        ipSweeper = sweeper;
+        try {
+            sweeper.start(openIps);
+            sweeper.awaitCompletion(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            sweeper.cancel();
+            throw e;
+        }
+        finally {
+            ipSweeper = null;
+        }
+    }
+
+    /**
+     * Remove a device that has left the network
+     * @param serial device serial
+     */
+    private void removeDevice(String serial) {
+        if (serial == null)
+            return;
+        RokuDevice removed = registry.remove(serial);
+        if (removed != null)
+            verifiedIps.remove(removed.getIp());
+    }
+
+    /**
+     * Add a Roku to the registry unless the current search already verified it. If a device with the same serial is
+     * already known it is updated.
+     * @param ip roku ip
+     * @param fastTimeout use a short connect timeout for hosts not known to have the ECP port open
+     * @return true if the ip is a Roku
+     */
+    private boolean verify(String ip, boolean fastTimeout) {
+        if (verifiedIps.contains(ip))
+            return true;
+        return query(ip, fastTimeout ? FAST_CONNECT_TIMEOUT : EcpClient.DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Query a device for its info and store it if it is a Roku
+     * @param ip device ip
+     * @param connectTimeout connect timeout in milliseconds
+     * @return true if the ip is a Roku
+     */
+    private boolean query(String ip, int connectTimeout) {
+        RokuDevice roku = client.queryDevice(ip, connectTimeout);
+        if (roku == null)
+            return false;
+        if (firstDeviceFound.compareAndSet(false, true))
+            Metrics.TIME_TO_FIRST_DEVICE.recordSince(searchStart);
+        verifiedIps.add(ip);
+        registry.update(roku);
+        listener.onDeviceFound(roku);
+        return true;
+    }
+}
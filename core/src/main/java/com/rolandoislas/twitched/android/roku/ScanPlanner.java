@@ -0,0 +1,215 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Plans the hosts probed by an IP sweep. Each local address contributes the real host range of its subnet instead of
+ * an assumed /24. Candidates are ordered by how likely they are to be a Roku: ARP cache neighbors first, then
+ * addresses spiraling out from our own, with subnets interleaved so each gets a fair share of the probe budget.
+ */
+public class ScanPlanner {
+    public static final int DEFAULT_PROBE_BUDGET = 1024;
+    private static final int FALLBACK_PREFIX_LENGTH = 24;
+    private static final String ARP_CACHE = "/proc/net/arp";
+    private final int probeBudget;
+    private final List<long[]> subnets = new ArrayList<>();
+    private final Set<Long> neighbors = new LinkedHashSet<>();
+
+    /**
+     * @param probeBudget maximum number of hosts in a plan
+     */
+    public ScanPlanner(int probeBudget) {
+        this.probeBudget = probeBudget;
+    }
+
+    /**
+     * Add the subnet of a local address
+     * @param ip local IPv4 address
+     * @param prefixLength network prefix length, values outside 1-32 are treated as a /24
+     */
+    public void addSubnet(String ip, int prefixLength) {
+        long address = toLong(ip);
+        if (address < 0)
+            return;
+        if (prefixLength < 1 || prefixLength > 32)
+            prefixLength = FALLBACK_PREFIX_LENGTH;
+        long[] range = hostRange(address, prefixLength);
+        if (range[0] > range[1])
+            return;
+        subnets.add(new long[] {address, range[0], range[1]});
+    }
+
+    /**
+     * Add a host known to be on the network, such as an ARP cache entry. Neighbors outside every added subnet are
+     * ignored.
+     * @param ip IPv4 address
+     */
+    public void addNeighbor(String ip) {
+        long address = toLong(ip);
+        if (address >= 0)
+            neighbors.add(address);
+    }
+
+    /**
+     * Add every complete entry in the kernel ARP cache as a neighbor. Missing or unreadable caches are ignored.
+     */
+    public void addArpNeighbors() {
+        for (String ip : readArpCache(new File(ARP_CACHE)))
+            addNeighbor(ip);
+    }
+
+    /**
+     * Build the ordered list of hosts to probe
+     * @return at most probeBudget hosts without duplicates and without our own addresses
+     */
+    public List<String> plan() {
+        Set<Long> own = new LinkedHashSet<>();
+        for (long[] subnet : subnets)
+            own.add(subnet[0]);
+        Set<Long> planned = new LinkedHashSet<>();
+        for (Long neighbor : neighbors) {
+            if (planned.size() >= probeBudget)
+                break;
+            if (!own.contains(neighbor) && inAnySubnet(neighbor))
+                planned.add(neighbor);
+        }
+        // Spiral out from each local address, taking one host from each subnet in turn
+        long[] steps = new long[subnets.size()];
+        boolean added = true;
+        while (planned.size() < probeBudget && added) {
+            added = false;
+            for (int subnetIndex = 0; subnetIndex < subnets.size() && planned.size() < probeBudget; subnetIndex++) {
+                long[] subnet = subnets.get(subnetIndex);
+                long host;
+                while ((host = spiral(subnet, steps[subnetIndex])) >= 0) {
+                    steps[subnetIndex]++;
+                    if (!own.contains(host) && planned.add(host)) {
+                        added = true;
+                        break;
+                    }
+                }
+            }
+        }
+        List<String> plan = new ArrayList<>(planned.size());
+        for (Long host : planned)
+            plan.add(toIp(host));
+        return plan;
+    }
+
+    /**
+     * Get the nth host of the spiral around a local address: +1, -1, +2, -2 and so on, skipping values outside the
+     * host range
+     * @param subnet local address, first host and last host
+     * @param step index into the spiral
+     * @return host or -1 when the range is exhausted
+     */
+    private static long spiral(long[] subnet, long step) {
+        long address = subnet[0];
+        long first = subnet[1];
+        long last = subnet[2];
+        long above = Math.max(0, last - address);
+        long below = Math.max(0, address - first);
+        long paired = Math.min(above, below);
+        if (step < paired * 2)
+            return step % 2 == 0 ? address + step / 2 + 1 : address - step / 2 - 1;
+        long remaining = step - paired * 2;
+        if (above > paired)
+            return remaining < above - paired ? address + paired + remaining + 1 : -1;
+        return remaining < below - paired ? address - paired - remaining - 1 : -1;
+    }
+
+    private boolean inAnySubnet(long host) {
+        for (long[] subnet : subnets) {
+            if (host >= subnet[1] && host <= subnet[2])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the usable hosts of a subnet. /31 subnets have two usable hosts and /32 subnets have only the address itself.
+     * @param address any address in the subnet
+     * @param prefixLength network prefix length 1-32
+     * @return first and last host, inclusive
+     */
+    static long[] hostRange(long address, int prefixLength) {
+        long mask = (0xFFFFFFFFL << (32 - prefixLength)) & 0xFFFFFFFFL;
+        long network = address & mask;
+        long broadcast = network | (~mask & 0xFFFFFFFFL);
+        if (prefixLength >= 31)
+            return new long[] {network, broadcast};
+        return new long[] {network + 1, broadcast - 1};
+    }
+
+    /**
+     * Parse a dotted quad
+     * @param ip IPv4 address
+     * @return address as an unsigned value or -1 if the string is not an IPv4 address
+     */
+    static long toLong(String ip) {
+        String[] octets = ip.split("\\.", -1);
+        if (octets.length != 4)
+            return -1;
+        long address = 0;
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3)
+                return -1;
+            int value = 0;
+            for (int index = 0; index < octet.length(); index++) {
+                char digit = octet.charAt(index);
+                if (digit < '0' || digit > '9')
+                    return -1;
+                value = value * 10 + (digit - '0');
+            }
+            if (value > 255)
+                return -1;
+            address = (address << 8) | value;
+        }
+        return address;
+    }
+
+    static String toIp(long address) {
+        return String.format(Locale.US, "%d.%d.%d.%d", (address >> 24) & 0xFF, (address >> 16) & 0xFF,
+                (address >> 8) & 0xFF, address & 0xFF);
+    }
+
+    /**
+     * Read the complete entries of a Linux ARP cache
+     * @param arpCache /proc/net/arp formatted file
+     * @return neighbor ips
+     */
+    static List<String> readArpCache(File arpCache) {
+        List<String> ips = new ArrayList<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(arpCache));
+            // IP address, HW type, Flags, HW address, Mask, Device
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.trim().split("\\s+");
+                if (columns.length < 4 || !columns[2].equals("0x2") || columns[3].equals("00:00:00:00:00:00"))
+                    continue;
+                ips.add(columns[0]);
+            }
+        }
+        catch (IOException ignore) {
+            // Not readable on this platform
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) { }
+            }
+        }
+        return ips;
+    }
+}
@@ -0,0 +1,243 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Finds Rokus with SSDP. Active searches retransmit the M-SEARCH with a jittered backoff and collect every reply until
+ * a deadline. A passive listener joins the multicast group to follow ssdp:alive and ssdp:byebye notifications.
+ */
+public class SsdpDiscovery {
+
+    /**
+     * Receives discovered devices. Called from the search or listener thread, so implementations must hand slow work
+     * such as device queries off to another thread or replies are not read until they return.
+     */
+    public interface Listener {
+        /**
+         * A device answered a search or announced itself
+         * @param usn unique service name
+         * @param ip device ip
+         * @param maxAge seconds the announcement is valid for or -1 if unknown
+         */
+        void onDeviceAlive(String usn, String ip, int maxAge);
+
+        /**
+         * A device announced it is leaving the network
+         * @param usn unique service name
+         */
+        void onDeviceByeBye(String usn);
+    }
+
+    public static final String SEARCH_TARGET = "roku:ecp";
+    public static final String USN_PREFIX = "uuid:roku:ecp:";
+    private static final String MULTICAST_ADDRESS = "239.255.255.250";
+    private static final int MULTICAST_PORT = 1900;
+    private static final int MX = 2;
+    private static final int RETRANSMITS = 3;
+    private static final int RETRANSMIT_BASE_DELAY = 250;
+    private static final int BUFFER_SIZE = 2048;
+    private final Logger logger = Logger.getLogger(SsdpDiscovery.class.getSimpleName());
+    private final Listener listener;
+    private final Random random = new Random();
+    private final InetSocketAddress searchAddress;
+    private volatile DatagramSocket searchSocket;
+    private volatile MulticastSocket notifySocket;
+
+    /**
+     * @param listener receives discovered devices
+     */
+    public SsdpDiscovery(Listener listener) {
+        this(listener, new InetSocketAddress(MULTICAST_ADDRESS, MULTICAST_PORT));
+    }
+
+    /**
+     * @param listener receives discovered devices
+     * @param searchAddress address searches are sent to instead of the SSDP multicast group, such as a local fake
+     */
+    public SsdpDiscovery(Listener listener, InetSocketAddress searchAddress) {
+        this.listener = listener;
+        this.searchAddress = searchAddress;
+    }
+
+    /**
+     * Build a spec compliant M-SEARCH message
+     * @return message bytes
+     */
+    private static byte[] createSearchMessage() {
+        return ("M-SEARCH * HTTP/1.1\r\n" +
+                "HOST: " + MULTICAST_ADDRESS + ":" + MULTICAST_PORT + "\r\n" +
+                "MAN: \"ssdp:discover\"\r\n" +
+                "MX: " + MX + "\r\n" +
+                "ST: " + SEARCH_TARGET + "\r\n" +
+                "\r\n").getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * Search for devices. Blocks until the timeout passes or the search is cancelled. Each device is reported once.
+     * @param timeoutMillis time to collect replies for
+     * @return number of devices found
+     * @throws IOException if the socket cannot be opened or the search cannot be sent
+     */
+    public int search(long timeoutMillis) throws IOException {
+        byte[] message = createSearchMessage();
+        DatagramPacket searchPacket = new DatagramPacket(message, message.length, searchAddress);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
+        SsdpMessageParser parser = new SsdpMessageParser();
+        Set<String> seen = new HashSet<>();
+        DatagramSocket socket = new DatagramSocket();
+        searchSocket = socket;
+        try {
+            long start = System.currentTimeMillis();
+            long deadline = start + timeoutMillis;
+            long nextSend = start;
+            int sent = 0;
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline)
+                    break;
+                if (sent < RETRANSMITS && now >= nextSend) {
+                    socket.send(searchPacket);
+                    sent++;
+                    // Exponential backoff with up to 50% jitter so phones searching together do not collide
+                    long delay = RETRANSMIT_BASE_DELAY << (sent - 1);
+                    nextSend = now + delay + random.nextInt((int) (delay / 2) + 1);
+                }
+                long wait = Math.min(deadline, sent < RETRANSMITS ? nextSend : deadline) - now;
+                socket.setSoTimeout((int) Math.max(1, wait));
+                responsePacket.setLength(buffer.length);
+                try {
+                    socket.receive(responsePacket);
+                }
+                catch (SocketTimeoutException ignore) {
+                    continue;
+                }
+                if (!parser.parse(responsePacket.getData(), responsePacket.getOffset(), responsePacket.getLength()) ||
+                        parser.getType() != SsdpMessageParser.TYPE_RESPONSE)
+                    continue;
+                // Other SSDP devices answer searches for targets they do not offer, only Rokus are worth a query
+                if (!SEARCH_TARGET.equals(parser.getSt()))
+                    continue;
+                if (!seen.add(parser.getLocationIp()))
+                    continue;
+                listener.onDeviceAlive(parser.getUsn(), parser.getLocationIp(), parser.getMaxAge());
+            }
+        }
+        catch (SocketException e) {
+            // Closed by cancelSearch
+            if (!socket.isClosed())
+                throw e;
+        }
+        finally {
+            socket.close();
+            searchSocket = null;
+        }
+        return seen.size();
+    }
+
+    /**
+     * Stop a running search
+     */
+    public void cancelSearch() {
+        DatagramSocket socket = searchSocket;
+        if (socket != null)
+            socket.close();
+    }
+
+    /**
+     * Start listening for NOTIFY messages. The listener occupies one executor thread until it stops. If it stops on
+     * an error, calling this again restarts it. On Android the caller must hold a multicast lock while listening.
+     * @param executor executor the listener runs on
+     */
+    public synchronized void startListening(Executor executor) {
+        if (notifySocket != null)
+            return;
+        MulticastSocket socket = null;
+        try {
+            socket = new MulticastSocket(MULTICAST_PORT);
+            socket.joinGroup(InetAddress.getByName(MULTICAST_ADDRESS));
+        }
+        catch (IOException e) {
+            logger.warning(String.format("Failed to join SSDP multicast group: %s", e.getMessage()));
+            if (socket != null)
+                socket.close();
+            return;
+        }
+        final MulticastSocket listenSocket = socket;
+        notifySocket = listenSocket;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listen(listenSocket);
+            }
+        });
+    }
+
+    /**
+     * Receive notifications until the socket is closed
+     * @param socket multicast socket
+     */
+    private void listen(MulticastSocket socket) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        SsdpMessageParser parser = new SsdpMessageParser();
+        try {
+            while (!socket.isClosed()) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                if (!parser.parse(packet.getData(), packet.getOffset(), packet.getLength()))
+                    continue;
+                if (parser.getType() == SsdpMessageParser.TYPE_ALIVE && SEARCH_TARGET.equals(parser.getNt()))
+                    listener.onDeviceAlive(parser.getUsn(), parser.getLocationIp(), parser.getMaxAge());
+                else if (parser.getType() == SsdpMessageParser.TYPE_BYEBYE && parser.getUsn().startsWith(USN_PREFIX))
+                    listener.onDeviceByeBye(parser.getUsn());
+            }
+        }
+        catch (IOException e) {
+            if (!socket.isClosed())
+                logger.warning(String.format("SSDP listener stopped: %s", e.getMessage()));
+        }
+        finally {
+            // Let startListening open a new socket after an error
+            synchronized (this) {
+                if (notifySocket == socket)
+                    notifySocket = null;
+            }
+            socket.close();
+        }
+    }
+
+    /**
+     * Stop listening for NOTIFY messages
+     */
+    public synchronized void stopListening() {
+        if (notifySocket == null)
+            return;
+        notifySocket.close();
+        notifySocket = null;
+    }
+
+    /**
+     * Get the serial number a Roku advertises in its USN
+     * @param usn unique service name
+     * @return serial or null if the USN is not a Roku ECP USN
+     */
+    public static String getSerial(String usn) {
+        if (usn == null || !usn.startsWith(USN_PREFIX))
+            return null;
+        return usn.substring(USN_PREFIX.length());
+    }
+}
@@ -0,0 +1,283 @@
+package com.rolandoislas.twitched.android.roku;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parses SSDP search responses and NOTIFY messages directly from a datagram buffer. Header names are matched in place
+ * and only the header values that are kept are turned into strings. A parser instance is reused between packets and is
+ * not thread safe.
+ */
+public class SsdpMessageParser {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] STATUS_OK = "HTTP/1.1 200".getBytes(ASCII);
+    private static final byte[] REQUEST_NOTIFY = "NOTIFY * HTTP/1.1".getBytes(ASCII);
+    private static final byte[] HEADER_LOCATION = "LOCATION".getBytes(ASCII);
+    private static final byte[] HEADER_USN = "USN".getBytes(ASCII);
+    private static final byte[] HEADER_ST = "ST".getBytes(ASCII);
+    private static final byte[] HEADER_CACHE_CONTROL = "CACHE-CONTROL".getBytes(ASCII);
+    private static final byte[] HEADER_NT = "NT".getBytes(ASCII);
+    private static final byte[] HEADER_NTS = "NTS".getBytes(ASCII);
+    private static final byte[] NTS_ALIVE = "ssdp:alive".getBytes(ASCII);
+    private static final byte[] NTS_BYEBYE = "ssdp:byebye".getBytes(ASCII);
+    public static final int TYPE_RESPONSE = 0;
+    public static final int TYPE_ALIVE = 1;
+    public static final int TYPE_BYEBYE = 2;
+    private static final byte[] MAX_AGE = "max-age".getBytes(ASCII);
+    private static final byte[] HTTP_SCHEME = "http://".getBytes(ASCII);
+    private int type;
+    private String locationIp;
+    private int locationPort;
+    private String usn;
+    private String st;
+    private String nt;
+    private int maxAge;
+
+    /**
+     * Parse a message. Fields that are not present in the message are reset.
+     * @param data datagram buffer
+     * @param offset start of the message in the buffer
+     * @param length length of the message
+     * @return true if the data is a 200 response or ssdp:alive notification with a LOCATION pointing at an IPv4
+     * address, or an ssdp:byebye notification with a USN
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        type = -1;
+        locationIp = null;
+        locationPort = -1;
+        usn = null;
+        st = null;
+        nt = null;
+        maxAge = -1;
+        int end = offset + length;
+        int lineEnd = findLineEnd(data, offset, end);
+        boolean notify;
+        if (regionMatches(data, offset, lineEnd, STATUS_OK, false)) {
+            notify = false;
+            type = TYPE_RESPONSE;
+        }
+        else if (regionMatches(data, offset, lineEnd, REQUEST_NOTIFY, false))
+            notify = true;
+        else
+            return false;
+        int lineStart = nextLine(data, lineEnd, end);
+        while (lineStart < end) {
+            lineEnd = findLineEnd(data, lineStart, end);
+            if (lineEnd == lineStart)
+                break;
+            parseHeader(data, lineStart, lineEnd);
+            lineStart = nextLine(data, lineEnd, end);
+        }
+        if (notify && type == TYPE_BYEBYE)
+            return usn != null;
+        if (notify && type != TYPE_ALIVE)
+            return false;
+        return locationIp != null;
+    }
+
+    /**
+     * Read a single header line
+     */
+    private void parseHeader(byte[] data, int start, int end) {
+        int colon = indexOf(data, start, end, (byte) ':');
+        if (colon < 0)
+            return;
+        int nameEnd = trimEnd(data, start, colon);
+        int valueStart = trimStart(data, colon + 1, end);
+        int valueEnd = trimEnd(data, valueStart, end);
+        if (regionEquals(data, start, nameEnd, HEADER_LOCATION))
+            parseLocation(data, valueStart, valueEnd);
+        else if (regionEquals(data, start, nameEnd, HEADER_USN))
+            usn = new String(data, valueStart, valueEnd - valueStart, ASCII);
+        else if (regionEquals(data, start, nameEnd, HEADER_ST))
+            st = new String(data, valueStart, valueEnd - valueStart, ASCII);
+        else if (regionEquals(data, start, nameEnd, HEADER_CACHE_CONTROL))
+            parseMaxAge(data, valueStart, valueEnd);
+        else if (regionEquals(data, start, nameEnd, HEADER_NT))
+            nt = new String(data, valueStart, valueEnd - valueStart, ASCII);
+        else if (regionEquals(data, start, nameEnd, HEADER_NTS) && type != TYPE_RESPONSE) {
+            if (regionEquals(data, valueStart, valueEnd, NTS_ALIVE))
+                type = TYPE_ALIVE;
+            else if (regionEquals(data, valueStart, valueEnd, NTS_BYEBYE))
+                type = TYPE_BYEBYE;
+        }
+    }
+
+    /**
+     * Extract the IPv4 host and port from a http://a.b.c.d:port/ location
+     */
+    private void parseLocation(byte[] data, int start, int end) {
+        if (!regionMatches(data, start, end, HTTP_SCHEME, true))
+            return;
+        int hostStart = start + HTTP_SCHEME.length;
+        int position = hostStart;
+        int dots = 0;
+        int octetDigits = 0;
+        int octetValue = 0;
+        while (position < end && data[position] != ':' && data[position] != '/') {
+            byte current = data[position];
+            if (current == '.') {
+                if (octetDigits == 0)
+                    return;
+                dots++;
+                octetDigits = 0;
+                octetValue = 0;
+            }
+            else if (current >= '0' && current <= '9') {
+                octetValue = octetValue * 10 + (current - '0');
+                if (++octetDigits > 3 || octetValue > 255)
+                    return;
+            }
+            else
+                return;
+            position++;
+        }
+        if (dots != 3 || octetDigits == 0)
+            return;
+        int port = 80;
+        if (position < end && data[position] == ':') {
+            port = parseInt(data, position + 1, end);
+            if (port < 0)
+                return;
+        }
+        locationIp = new String(data, hostStart, position - hostStart, ASCII);
+        locationPort = port;
+    }
+
+    /**
+     * Find max-age=N in a cache control value
+     */
+    private void parseMaxAge(byte[] data, int start, int end) {
+        for (int position = start; position + MAX_AGE.length < end; position++) {
+            if (regionMatches(data, position, end, MAX_AGE, true)) {
+                int valueStart = trimStart(data, position + MAX_AGE.length, end);
+                if (valueStart < end && data[valueStart] == '=') {
+                    maxAge = parseInt(data, trimStart(data, valueStart + 1, end), end);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse leading digits
+     * @return value or -1 if there are no digits
+     */
+    private static int parseInt(byte[] data, int start, int end) {
+        int value = 0;
+        int position = start;
+        while (position < end && data[position] >= '0' && data[position] <= '9' && position - start < 9)
+            value = value * 10 + (data[position++] - '0');
+        return position == start ? -1 : value;
+    }
+
+    private static int findLineEnd(byte[] data, int start, int end) {
+        int position = start;
+        while (position < end && data[position] != '\r' && data[position] != '\n')
+            position++;
+        return position;
+    }
+
+    private static int nextLine(byte[] data, int lineEnd, int end) {
+        int position = lineEnd;
+        if (position < end && data[position] == '\r')
+            position++;
+        if (position < end && data[position] == '\n')
+            position++;
+        return position;
+    }
+
+    private static int indexOf(byte[] data, int start, int end, byte value) {
+        for (int position = start; position < end; position++) {
+            if (data[position] == value)
+                return position;
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] data, int start, int end) {
+        int position = start;
+        while (position < end && (data[position] == ' ' || data[position] == '\t'))
+            position++;
+        return position;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        int position = end;
+        while (position > start && (data[position - 1] == ' ' || data[position - 1] == '\t'))
+            position--;
+        return position;
+    }
+
+    /**
+     * Check if the region is exactly the expected ASCII bytes, ignoring case
+     */
+    private static boolean regionEquals(byte[] data, int start, int end, byte[] expected) {
+        return end - start == expected.length && regionMatches(data, start, end, expected, true);
+    }
+
+    /**
+     * Check if the region starts with the expected ASCII bytes
+     */
+    private static boolean regionMatches(byte[] data, int start, int end, byte[] expected, boolean ignoreCase) {
+        if (end - start < expected.length)
+            return false;
+        for (int index = 0; index < expected.length; index++) {
+            int actual = data[start + index];
+            int wanted = expected[index];
+            if (ignoreCase) {
+                actual = toLower(actual);
+                wanted = toLower(wanted);
+            }
+            if (actual != wanted)
+                return false;
+        }
+        return true;
+    }
+
+    private static int toLower(int character) {
+        return character >= 'A' && character <= 'Z' ? character + ('a' - 'A') : character;
+    }
+
+    /**
+     * @return one of TYPE_RESPONSE, TYPE_ALIVE or TYPE_BYEBYE
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return IPv4 address from the LOCATION header
+     */
+    public String getLocationIp() {
+        return locationIp;
+    }
+
+    /**
+     * @return port from the LOCATION header
+     */
+    public int getLocationPort() {
+        return locationPort;
+    }
+
+    public String getUsn() {
+        return usn;
+    }
+
+    public String getSt() {
+        return st;
+    }
+
+    /**
+     * @return notification type of a NOTIFY message
+     */
+    public String getNt() {
+        return nt;
+    }
+
+    /**
+     * @return CACHE-CONTROL max-age in seconds or -1 if absent
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+}
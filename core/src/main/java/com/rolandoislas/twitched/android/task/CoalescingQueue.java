@@ -0,0 +1,124 @@
+package com.rolandoislas.twitched.android.task;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time per key while tasks with different keys run in parallel. At most one task waits behind the
+ * running task of a key: submitting another replaces the waiting one, so a burst of submissions for the same key only
+ * runs the first and the last. Replaced tasks are cancelled and counted as dropped.
+ */
+public class CoalescingQueue {
+    private final ThreadPoolExecutor executor;
+    private final Set<String> running = new HashSet<>();
+    private final Map<String, FutureTask<?>> pending = new HashMap<>();
+    private long dropped;
+
+    /**
+     * @param name thread name prefix
+     * @param maxThreads maximum number of keys running at once, idle threads exit after a while
+     */
+    public CoalescingQueue(final String name, int maxThreads) {
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a task behind the running task of its key, replacing any task already waiting there
+     * @param key tasks with the same key run one at a time
+     * @param task work to run
+     * @param <T> result type
+     * @return future of the task, cancelled if a later submission replaces it before it starts
+     */
+    public <T> Future<T> submit(final String key, Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(task);
+        FutureTask<?> replaced = null;
+        boolean start = false;
+        synchronized (this) {
+            if (running.add(key))
+                start = true;
+            else
+                replaced = pending.put(key, future);
+            if (replaced != null)
+                dropped++;
+        }
+        if (replaced != null)
+            replaced.cancel(false);
+        if (start) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(key, future);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Run a key's tasks until none are waiting
+     * @param key task key
+     * @param first task to run first
+     */
+    private void drain(String key, FutureTask<?> first) {
+        FutureTask<?> next = first;
+        while (next != null) {
+            // Cancelled tasks do nothing when run
+            next.run();
+            synchronized (this) {
+                next = pending.remove(key);
+                if (next == null)
+                    running.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return number of tasks waiting behind a running task
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @param key task key
+     * @return true if a task is waiting behind the running task of the key
+     */
+    public synchronized boolean hasPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    /**
+     * @return number of keys with a running task
+     */
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    /**
+     * @return number of tasks replaced before they started
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
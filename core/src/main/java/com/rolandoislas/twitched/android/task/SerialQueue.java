@@ -0,0 +1,83 @@
+package com.rolandoislas.twitched.android.task;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs tasks one at a time per key, in the order they were submitted, while tasks with different keys run in
+ * parallel. Unlike {@link CoalescingQueue} nothing is dropped. Waiting tasks are queued rather than parked on an
+ * executor thread, so only keys with work to do use a thread.
+ */
+public class SerialQueue {
+    private final Executor executor;
+    private final Map<String, Queue<FutureTask<?>>> queues = new HashMap<>();
+
+    /**
+     * @param executor executor each key's tasks are drained on
+     */
+    public SerialQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a task behind the tasks already submitted for its key
+     * @param key tasks with the same key run one at a time in order
+     * @param task work to run
+     * @param <T> result type
+     * @return future of the task
+     */
+    public <T> Future<T> submit(final String key, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        synchronized (this) {
+            Queue<FutureTask<?>> queue = queues.get(key);
+            if (queue != null) {
+                queue.add(future);
+                return future;
+            }
+            queues.put(key, new ArrayDeque<FutureTask<?>>());
+        }
+        final FutureTask<T> first = future;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain(key, first);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run a key's tasks until none are waiting
+     * @param key task key
+     * @param first task to run first
+     */
+    private void drain(String key, FutureTask<?> first) {
+        FutureTask<?> next = first;
+        while (next != null) {
+            // Cancelled tasks do nothing when run
+            next.run();
+            synchronized (this) {
+                Queue<FutureTask<?>> queue = queues.get(key);
+                next = queue.poll();
+                if (next == null)
+                    queues.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return number of tasks waiting behind a running task
+     */
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Queue<FutureTask<?>> queue : queues.values())
+            pending += queue.size();
+        return pending;
+    }
+}
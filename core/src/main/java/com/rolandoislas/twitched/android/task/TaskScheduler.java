@@ -0,0 +1,232 @@
+package com.rolandoislas.twitched.android.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background work on a bounded pool of named threads. Tasks belong to an owner, usually an activity, so all of
+ * its work can be cancelled when it goes away. Tasks with the same key are deduplicated while one is in flight. A
+ * cancelled task stays in flight until its body returns, since blocking I/O does not stop for interrupts, and a task
+ * submitted with its key meanwhile starts only once it has.
+ * Completion callbacks are delivered on the callback executor, which on Android posts to the main thread, and are
+ * never delivered for cancelled tasks.
+ */
+public class TaskScheduler implements Executor {
+
+    /**
+     * Receives the outcome of a task on the callback executor
+     * @param <T> result type
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Throwable error);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Executor callbackExecutor;
+    private final Set<ScheduledTask<?>> tasks = new HashSet<>();
+    private final Map<String, ScheduledTask<?>> keyedTasks = new HashMap<>();
+
+    /**
+     * @param name thread name prefix
+     * @param maxThreads maximum number of threads, idle threads exit after a while
+     * @param callbackExecutor executor that completion callbacks run on
+     */
+    public TaskScheduler(String name, int maxThreads, Executor callbackExecutor) {
+        this(name, maxThreads, Thread.NORM_PRIORITY, callbackExecutor);
+    }
+
+    /**
+     * @param name thread name prefix
+     * @param maxThreads maximum number of threads, idle threads exit after a while
+     * @param threadPriority java priority of the worker threads
+     * @param callbackExecutor executor that completion callbacks run on
+     */
+    public TaskScheduler(final String name, int maxThreads, final int threadPriority, Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(threadPriority);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a task in the background
+     * @param owner owner the task is cancelled with
+     * @param key tasks with the same key are not run concurrently or null to always run the task
+     * @param task work to run
+     * @param callback optional completion callback
+     * @param <T> result type
+     * @return future of the new task or of the in-flight task with the same key, whose callback is kept
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(Object owner, String key, Callable<T> task, Callback<T> callback) {
+        ScheduledTask<T> scheduled;
+        synchronized (this) {
+            ScheduledTask<?> inFlight = key == null ? null : keyedTasks.get(key);
+            if (inFlight != null && !inFlight.isCancelled())
+                return (Future<T>) inFlight;
+            scheduled = new ScheduledTask<>(owner, key, task, callback);
+            tasks.add(scheduled);
+            if (key != null)
+                keyedTasks.put(key, scheduled);
+            // Wait for a cancelled task that may still be running so tasks with the same key never overlap
+            if (inFlight != null) {
+                inFlight.successor = scheduled;
+                return scheduled;
+            }
+        }
+        executor.execute(scheduled);
+        return scheduled;
+    }
+
+    /**
+     * Run a task in the background without tracking or callbacks
+     * @param runnable work to run
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    /**
+     * Check whether a task with a key is queued or running. A cancelled task whose body has not returned yet does not
+     * count, since it will never deliver a result; submitting the key again queues a new task behind it.
+     * @param key task key
+     * @return true if a task with the key is in flight and not cancelled
+     */
+    public synchronized boolean isRunning(String key) {
+        ScheduledTask<?> task = keyedTasks.get(key);
+        return task != null && !task.isCancelled();
+    }
+
+    /**
+     * Cancel the task with a key, interrupting it if it is running
+     * @param key task key
+     */
+    public void cancel(String key) {
+        ScheduledTask<?> task;
+        synchronized (this) {
+            task = keyedTasks.get(key);
+        }
+        if (task != null)
+            task.cancel(true);
+    }
+
+    /**
+     * Cancel every task of an owner, interrupting those that are running. Callbacks that are already posted are
+     * dropped.
+     * @param owner task owner
+     */
+    public void cancelAll(Object owner) {
+        List<ScheduledTask<?>> owned = new ArrayList<>();
+        synchronized (this) {
+            for (ScheduledTask<?> task : tasks) {
+                if (task.owner == owner)
+                    owned.add(task);
+            }
+        }
+        for (ScheduledTask<?> task : owned) {
+            task.callbackCancelled = true;
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * @return number of tracked tasks that are queued or running
+     */
+    public synchronized int getTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Forget a task whose body has returned and start the task waiting for its key
+     * @param task finished task
+     */
+    private void remove(ScheduledTask<?> task) {
+        ScheduledTask<?> successor;
+        synchronized (this) {
+            tasks.remove(task);
+            if (task.key != null && keyedTasks.get(task.key) == task)
+                keyedTasks.remove(task.key);
+            successor = task.successor;
+        }
+        if (successor != null)
+            executor.execute(successor);
+    }
+
+    private class ScheduledTask<T> extends FutureTask<T> {
+        private final Object owner;
+        private final String key;
+        private final Callback<T> callback;
+        private volatile boolean callbackCancelled;
+        // Guarded by the scheduler
+        private ScheduledTask<?> successor;
+
+        ScheduledTask(Object owner, String key, Callable<T> task, Callback<T> callback) {
+            super(task);
+            this.owner = owner;
+            this.key = key;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            // Cancelling completes the future right away, the key is only released once the body has returned
+            try {
+                super.run();
+            }
+            finally {
+                remove(this);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled())
+                return;
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (callbackCancelled)
+                        return;
+                    T result;
+                    try {
+                        result = get();
+                    } catch (ExecutionException e) {
+                        callback.onFailure(e.getCause());
+                        return;
+                    } catch (InterruptedException | CancellationException e) {
+                        return;
+                    }
+                    callback.onSuccess(result);
+                }
+            });
+        }
+    }
+}
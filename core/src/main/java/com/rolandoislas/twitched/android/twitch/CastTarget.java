@@ -0,0 +1,60 @@
+package com.rolandoislas.twitched.android.twitch;
+
+import java.util.Locale;
+
+/**
+ * Something on Twitch that can be played on a Roku
+ */
+public class CastTarget {
+
+    public enum Type {
+        STREAM,
+        VIDEO,
+        CLIP
+    }
+
+    private final Type type;
+    private final String id;
+    private final int offset;
+
+    /**
+     * @param type kind of content
+     * @param id channel name, video id or clip slug
+     * @param offset playback offset in seconds, only used by videos
+     */
+    public CastTarget(Type type, String id, int offset) {
+        this.type = type;
+        this.id = id;
+        this.offset = offset;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CastTarget))
+            return false;
+        CastTarget target = (CastTarget) other;
+        return type == target.type && id.equals(target.id) && offset == target.offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.hashCode() * 31 + id.hashCode()) * 31 + offset;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s:%s@%d", type, id, offset);
+    }
+}
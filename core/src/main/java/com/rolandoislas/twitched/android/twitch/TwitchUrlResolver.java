@@ -0,0 +1,207 @@
+package com.rolandoislas.twitched.android.twitch;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns shared text into a cast target. Twitch links are located with a plain substring search, cut out of the text
+ * and only then matched in full against a table of precompiled path patterns, so long share texts never cause
+ * backtracking. The first link that resolves wins.
+ */
+public class TwitchUrlResolver {
+    private static final String DOMAIN = "twitch.tv";
+    private static final String HOST_CLIPS = "clips.twitch.tv";
+    private static final Set<String> HOSTS = new HashSet<>(Arrays.asList(
+            DOMAIN, "www.twitch.tv", "m.twitch.tv", "go.twitch.tv"));
+    // First path segments that are pages rather than channels
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "directory", "videos", "collections", "clips", "settings", "subscriptions", "inventory", "wallet",
+            "search", "downloads", "jobs", "p", "turbo", "friends", "messages", "login", "signup", "prime", "store",
+            "drops", "following", "popout", "embed", "team"));
+    private static final Route[] ROUTES = {
+            new Route(false, "[a-z0-9_]+/clip/([a-z0-9_-]+)", CastTarget.Type.CLIP),
+            new Route(false, "videos/(\\d+)", CastTarget.Type.VIDEO),
+            new Route(false, "[a-z0-9_]+/v(?:ideo)?/(\\d+)", CastTarget.Type.VIDEO),
+            new Route(false, "([a-z0-9_]{1,25})", CastTarget.Type.STREAM),
+            new Route(true, "([a-z0-9_-]+)", CastTarget.Type.CLIP)
+    };
+
+    private TwitchUrlResolver() {
+    }
+
+    /**
+     * Find the first Twitch link in some text
+     * @param text shared text
+     * @return target or null if the text does not contain a supported link
+     */
+    public static CastTarget resolve(String text) {
+        if (text == null)
+            return null;
+        int from = 0;
+        int domainIndex;
+        while ((domainIndex = indexOfIgnoreCase(text, DOMAIN, from)) >= 0) {
+            int start = domainIndex;
+            while (start > 0 && !isDelimiter(text.charAt(start - 1)))
+                start--;
+            int end = domainIndex + DOMAIN.length();
+            while (end < text.length() && !isDelimiter(text.charAt(end)))
+                end++;
+            CastTarget target = resolveUrl(text.substring(start, end));
+            if (target != null)
+                return target;
+            from = end;
+        }
+        return null;
+    }
+
+    /**
+     * Resolve a single link
+     * @param url link with or without a scheme
+     * @return target or null
+     */
+    static CastTarget resolveUrl(String url) {
+        url = trimTrailingPunctuation(url);
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd >= 0) {
+            String scheme = url.substring(0, schemeEnd);
+            if (!scheme.equalsIgnoreCase("http") && !scheme.equalsIgnoreCase("https"))
+                return null;
+            url = url.substring(schemeEnd + 3);
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0)
+            url = url.substring(0, fragment);
+        int queryStart = url.indexOf('?');
+        String query = queryStart < 0 ? "" : url.substring(queryStart + 1);
+        String hostAndPath = queryStart < 0 ? url : url.substring(0, queryStart);
+        int pathStart = hostAndPath.indexOf('/');
+        String host = (pathStart < 0 ? hostAndPath : hostAndPath.substring(0, pathStart)).toLowerCase(Locale.US);
+        String path = pathStart < 0 ? "" : hostAndPath.substring(pathStart + 1);
+        while (path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        boolean clipsHost = host.equals(HOST_CLIPS);
+        if (!clipsHost && !HOSTS.contains(host))
+            return null;
+        for (Route route : ROUTES) {
+            if (route.clipsHost != clipsHost)
+                continue;
+            Matcher matcher = route.path.matcher(path);
+            if (!matcher.matches())
+                continue;
+            String id = matcher.group(1);
+            switch (route.type) {
+                case STREAM:
+                    // Channel names are case insensitive, clip slugs are not
+                    id = id.toLowerCase(Locale.US);
+                    if (RESERVED.contains(id))
+                        return null;
+                    return new CastTarget(CastTarget.Type.STREAM, id, 0);
+                case VIDEO:
+                    return new CastTarget(CastTarget.Type.VIDEO, id, parseOffset(getParameter(query, "t")));
+                default:
+                    return new CastTarget(route.type, id, 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a video offset such as 1h2m3s, 95s or 95
+     * @param offset offset parameter or null
+     * @return offset in seconds or zero if it is missing or invalid
+     */
+    static int parseOffset(String offset) {
+        if (offset == null || offset.isEmpty() || offset.length() > 16)
+            return 0;
+        long seconds = 0;
+        long value = 0;
+        boolean digits = false;
+        for (int index = 0; index < offset.length(); index++) {
+            char character = Character.toLowerCase(offset.charAt(index));
+            if (character >= '0' && character <= '9') {
+                value = value * 10 + (character - '0');
+                digits = true;
+                continue;
+            }
+            if (!digits)
+                return 0;
+            if (character == 'h')
+                seconds += value * 3600;
+            else if (character == 'm')
+                seconds += value * 60;
+            else if (character == 's')
+                seconds += value;
+            else
+                return 0;
+            value = 0;
+            digits = false;
+        }
+        seconds += value;
+        return (int) Math.min(Integer.MAX_VALUE, seconds);
+    }
+
+    /**
+     * Get a query parameter value without decoding it
+     * @param query query string without the question mark
+     * @param name parameter name
+     * @return value or null if the parameter is missing
+     */
+    private static String getParameter(String query, String name) {
+        int start = 0;
+        while (start < query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0)
+                end = query.length();
+            int equals = query.indexOf('=', start);
+            if (equals > start && equals < end && query.regionMatches(start, name, 0, name.length()) &&
+                    equals - start == name.length())
+                return query.substring(equals + 1, end);
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static boolean isDelimiter(char character) {
+        return Character.isWhitespace(character) || character == '"' || character == '\'' || character == '<' ||
+                character == '>' || character == '(' || character == ')' || character == '[' || character == ']';
+    }
+
+    private static String trimTrailingPunctuation(String url) {
+        int end = url.length();
+        while (end > 0 && ".,;:!?".indexOf(url.charAt(end - 1)) >= 0)
+            end--;
+        return url.substring(0, end);
+    }
+
+    private static int indexOfIgnoreCase(String text, String lowerCaseTarget, int from) {
+        int last = text.length() - lowerCaseTarget.length();
+        char first = lowerCaseTarget.charAt(0);
+        for (int index = from; index <= last; index++) {
+            if (Character.toLowerCase(text.charAt(index)) == first &&
+                    text.regionMatches(true, index, lowerCaseTarget, 0, lowerCaseTarget.length()))
+                return index;
+        }
+        return -1;
+    }
+
+    private static class Route {
+        private final boolean clipsHost;
+        private final Pattern path;
+        private final CastTarget.Type type;
+
+        /**
+         * @param clipsHost true if the route applies to clips.twitch.tv instead of the main site
+         * @param path pattern for the whole path without leading or trailing slashes, group one is the id
+         * @param type target type
+         */
+        Route(boolean clipsHost, String path, CastTarget.Type type) {
+            this.clipsHost = clipsHost;
+            this.path = Pattern.compile(path, Pattern.CASE_INSENSITIVE);
+            this.type = type;
+        }
+    }
+}
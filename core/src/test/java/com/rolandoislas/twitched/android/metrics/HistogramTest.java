@@ -0,0 +1,45 @@
+package com.rolandoislas.twitched.android.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketBoundsContainTheirValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 100, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(String.valueOf(value), Histogram.bucketUpperBound(index) >= value);
+            if (index > 0)
+                assertTrue(String.valueOf(value), Histogram.bucketUpperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        Histogram histogram = new Histogram("test", Metrics.UNIT_MILLIS);
+        for (int value = 1; value <= 1000; value++)
+            histogram.record(value);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(900, histogram.getPercentile(90));
+        assertWithin(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram("test", Metrics.UNIT_MILLIS);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(String.format("expected %d but was %d", expected, actual),
+                actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,39 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.rolandoislas.twitched.android.roku.DeviceInfoParserTest.readFixture;
+import static org.junit.Assert.*;
+
+public class AppListParserTest {
+    private static final List<String> TWITCHED_IDS = Arrays.asList("206723", "223126");
+
+    @Test
+    public void findsInstalledChannels() throws Exception {
+        assertEquals(Arrays.asList("223126", "206723"),
+                Arrays.asList(AppListParser.findInstalled(readFixture("apps.xml"), TWITCHED_IDS).toArray()));
+    }
+
+    @Test
+    public void missingChannelsAreNotReported() throws Exception {
+        assertTrue(AppListParser.findInstalled(readFixture("apps-without-twitched.xml"), TWITCHED_IDS).isEmpty());
+    }
+
+    @Test
+    public void stopsAfterEveryWantedChannel() throws Exception {
+        // Everything after the wanted app is malformed and must never be read
+        String xml = "<apps><app id=\"206723\">Twitched</app><app id=\"12\"><broken></apps>";
+        assertEquals(Collections.singleton("206723"),
+                AppListParser.findInstalled(xml, Collections.singletonList("206723")));
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void rejectsOtherDocuments() throws Exception {
+        AppListParser.findInstalled(readFixture("device-info-express.xml"), TWITCHED_IDS);
+    }
+}
@@ -0,0 +1,148 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParserException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class DeviceInfoParserTest {
+    private static final int BENCHMARK_ITERATIONS = 20000;
+
+    @Test
+    public void parsesStreamingStick() throws Exception {
+        DeviceInfo info = DeviceInfoParser.parse(readFixture("device-info-express.xml"));
+        assertTrue(info.isRoku());
+        assertEquals("Lounge Roku", info.getUserDeviceName());
+        assertEquals("YH009E000001", info.getSerialNumber());
+        assertEquals("29380007-0800-1025-80a4-d83134aabbcc", info.getUdn());
+        assertEquals("Roku Express", info.getModelName());
+        assertEquals("wifi", info.getNetworkType());
+        assertEquals("PowerOn", info.getPowerMode());
+    }
+
+    @Test
+    public void parsesTvWithEntities() throws Exception {
+        DeviceInfo info = DeviceInfoParser.parse(readFixture("device-info-tv.xml"));
+        assertFalse(info.isRoku());
+        assertEquals("Office & Lab TV", info.getUserDeviceName());
+        assertEquals("ethernet", info.getNetworkType());
+        assertEquals("DisplayOff", info.getPowerMode());
+        assertEquals("X00400AAAAAA", info.getIdentifier("10.0.0.2"));
+    }
+
+    @Test
+    public void missingFieldsAreEmpty() throws Exception {
+        DeviceInfo info = DeviceInfoParser.parse("<device-info><vendor-name>Roku</vendor-name></device-info>");
+        assertTrue(info.isRoku());
+        assertEquals("", info.getUserDeviceName());
+        assertEquals("10.0.0.2", info.getIdentifier("10.0.0.2"));
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void rejectsOtherDocuments() throws Exception {
+        DeviceInfoParser.parse("<apps><app id=\"12\">Netflix</app></apps>");
+    }
+
+    /**
+     * Compare parse time and allocations against building a DOM as discovery previously did
+     */
+    @Test
+    public void benchmarkAgainstDom() throws Exception {
+        final String xml = readFixture("device-info-express.xml");
+        ParseTask pull = new ParseTask() {
+            @Override
+            public String parse() throws Exception {
+                return DeviceInfoParser.parse(xml).getUserDeviceName();
+            }
+        };
+        ParseTask dom = new ParseTask() {
+            @Override
+            public String parse() throws Exception {
+                return domParse(xml);
+            }
+        };
+        assertEquals(pull.parse(), dom.parse());
+        // Warm up
+        measure(pull);
+        measure(dom);
+        long[] pullResult = measure(pull);
+        long[] domResult = measure(dom);
+        System.out.println(String.format(Locale.US, "Pull parser: %d ns/parse, %d bytes/parse",
+                pullResult[0], pullResult[1]));
+        System.out.println(String.format(Locale.US, "DOM: %d ns/parse, %d bytes/parse",
+                domResult[0], domResult[1]));
+        if (pullResult[1] >= 0 && domResult[1] >= 0)
+            assertTrue(pullResult[1] < domResult[1]);
+    }
+
+    private interface ParseTask {
+        String parse() throws Exception;
+    }
+
+    /**
+     * Run a parser repeatedly
+     * @return nanoseconds per parse and allocated bytes per parse (-1 if the JVM cannot measure allocations)
+     */
+    private static long[] measure(ParseTask task) throws Exception {
+        long allocatedStart = allocatedBytes();
+        long start = System.nanoTime();
+        for (int iteration = 0; iteration < BENCHMARK_ITERATIONS; iteration++)
+            task.parse();
+        long elapsed = System.nanoTime() - start;
+        long allocatedEnd = allocatedBytes();
+        long allocated = allocatedStart < 0 ? -1 : (allocatedEnd - allocatedStart) / BENCHMARK_ITERATIONS;
+        return new long[] {elapsed / BENCHMARK_ITERATIONS, allocated};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The DOM parsing previously done in MainActivity.addRokuToSearchList
+     */
+    private static String domParse(String xml) throws Exception {
+        Document info = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml)));
+        NodeList deviceInfoNodes = info.getElementsByTagName("device-info");
+        Node deviceInfo = deviceInfoNodes.item(0);
+        String userDeviceName = "";
+        for (int nodeIndex = 0; nodeIndex < deviceInfo.getChildNodes().getLength(); nodeIndex++) {
+            Node node = deviceInfo.getChildNodes().item(nodeIndex);
+            if (node.getNodeName().equals("user-device-name"))
+                userDeviceName = node.getTextContent();
+        }
+        return userDeviceName;
+    }
+
+    static String readFixture(String name) throws IOException {
+        InputStream input = DeviceInfoParserTest.class.getResourceAsStream("/ecp/" + name);
+        assertNotNull(name, input);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = input.read(chunk)) != -1)
+                output.write(chunk, 0, read);
+            return output.toString("UTF-8");
+        }
+        finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+    private static RokuDevice device(String serial, String ip, long lastSeen) {
+        return new RokuDevice(serial, ip, serial, "Roku", "wifi", "PowerOn", lastSeen, 0);
+    }
+
+    private static String describe(List<RokuDevice> devices) {
+        StringBuilder description = new StringBuilder();
+        for (RokuDevice device : devices) {
+            if (description.length() > 0)
+                description.append(", ");
+            description.append(device.getSerial()).append('@').append(device.getIp());
+        }
+        return description.toString();
+    }
+
+    @Test
+    public void updateAddsAndReplacesBySerial() {
+        final int[] changes = {0};
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.addListener(new DeviceRegistry.Listener() {
+            @Override
+            public void onDevicesChanged() {
+                changes[0]++;
+            }
+        });
+        registry.update(device("A", "10.0.0.2", 1));
+        registry.update(device("B", "10.0.0.3", 1));
+        registry.update(device("A", "10.0.0.2", 2));
+        assertEquals("A@10.0.0.2, B@10.0.0.3", describe(registry.getDevices()));
+        assertEquals(2, registry.findBySerial("A").getLastSeen());
+        assertEquals(3, changes[0]);
+    }
+
+    @Test
+    public void relocatedDeviceKeepsItsEntry() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A", "10.0.0.2", 1));
+        registry.update(device("A", "10.0.0.9", 2));
+        assertEquals("A@10.0.0.9", describe(registry.getDevices()));
+        assertNull(registry.findByIp("10.0.0.2"));
+    }
+
+    @Test
+    public void swappedIpsKeepBothDevices() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A", "10.0.0.2", 1));
+        registry.update(device("B", "10.0.0.3", 1));
+        // DHCP swapped the leases; A answers first on B's old ip
+        registry.update(device("A", "10.0.0.3", 2));
+        assertEquals("A@10.0.0.3", describe(registry.getDevices()));
+        registry.update(device("B", "10.0.0.2", 2));
+        assertEquals("A@10.0.0.3, B@10.0.0.2", describe(registry.getDevices()));
+        assertEquals("A", registry.findByIp("10.0.0.3").getSerial());
+        assertEquals("10.0.0.2", registry.findBySerial("B").getIp());
+    }
+
+    @Test
+    public void newDeviceOnAKnownIpReplacesTheOldOne() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A", "10.0.0.2", 1));
+        registry.update(device("C", "10.0.0.2", 2));
+        assertEquals("C@10.0.0.2", describe(registry.getDevices()));
+    }
+
+    @Test
+    public void addAbsentKeepsKnownEntries() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A", "10.0.0.2", 5));
+        registry.addAbsent(Arrays.asList(device("A", "10.0.0.2", 1), device("B", "10.0.0.2", 1),
+                device("C", "10.0.0.4", 1)));
+        assertEquals("A@10.0.0.2, C@10.0.0.4", describe(registry.getDevices()));
+        assertEquals(5, registry.findBySerial("A").getLastSeen());
+    }
+
+    @Test
+    public void removesBySerialAndIp() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A", "10.0.0.2", 1));
+        registry.update(device("B", "10.0.0.3", 10));
+        assertNull(registry.remove("C"));
+        assertEquals("A", registry.remove("A").getSerial());
+        // B answered after the failed probe started so it stays
+        assertNull(registry.removeByIp("10.0.0.3", 5));
+        assertEquals("B", registry.removeByIp("10.0.0.3", 15).getSerial());
+        assertEquals(Collections.<RokuDevice>emptyList(), registry.getDevices());
+    }
+}
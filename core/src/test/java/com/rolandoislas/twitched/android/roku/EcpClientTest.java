@@ -0,0 +1,142 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EcpClientTest {
+    private static final long RESPONSE_DELAY = 300;
+    private final AtomicInteger statusRequests = new AtomicInteger(0);
+    private HttpServer server;
+    private EcpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        // Bind every loopback address so each 127.0.0.x stands in for a separate Roku
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(RESPONSE_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/status/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Answers /status/CODE with CODE until it was asked FAILURES times, then with 200
+                exchange.getRequestBody().close();
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                int status = statusRequests.incrementAndGet() <= Integer.parseInt(path[3]) ?
+                        Integer.parseInt(path[2]) : 200;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        client = new EcpClient(server.getAddress().getPort());
+        client.setRetryPolicy(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void warmingMoreDevicesThanFitSkipsTheRest() throws Exception {
+        List<Future<Boolean>> warmUps = new ArrayList<>();
+        for (int host = 1; host <= 100; host++)
+            warmUps.add(client.warm("127.0.1." + host));
+        int skipped = 0;
+        for (Future<Boolean> warmUp : warmUps) {
+            if (!warmUp.get(10, TimeUnit.SECONDS))
+                skipped++;
+        }
+        // Four threads with a queue of 64 hold 68 warm ups at most
+        assertTrue(String.format("%d skipped", skipped), skipped >= 100 - 68);
+    }
+
+    @Test
+    public void unreachableDevicesFailFast() throws Exception {
+        // Nothing listens on this port so every connection is refused
+        EcpClient closed = new EcpClient(1);
+        closed.setRetryPolicy(0, 0);
+        for (int attempt = 0; attempt < ReachabilityTracker.UNREACHABLE_FAILURES; attempt++) {
+            try {
+                closed.launch("127.0.0.1", "206723", "contentId=twitch_stream_test&mediaType=live");
+                fail("Launch to a closed port succeeded");
+            } catch (WebbException ignore) { }
+        }
+        assertTrue(closed.getReachability().isUnreachable("127.0.0.1"));
+        Future<Boolean> warm = closed.warm("127.0.0.1");
+        assertTrue(warm.isDone());
+        assertFalse(warm.get());
+        long start = System.nanoTime();
+        try {
+            closed.launch("127.0.0.1", "206723", "contentId=twitch_stream_test&mediaType=live");
+            fail("Launch to an unreachable device succeeded");
+        } catch (WebbException ignore) { }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Far below the connect timeout, with room for the first exception thrown on a cold JVM
+        assertTrue(String.format("Failing fast took %d ms", elapsed), elapsed < 50);
+    }
+
+    @Test
+    public void postRetriesServerErrors() {
+        client.setRetryPolicy(2, 10);
+        client.post("127.0.0.1", "/status/503/2");
+        assertEquals(3, statusRequests.get());
+    }
+
+    @Test
+    public void postGivesUpAfterTheLastRetry() {
+        client.setRetryPolicy(1, 10);
+        try {
+            client.post("127.0.0.1", "/status/503/5");
+            fail("Failing POST succeeded");
+        } catch (WebbException e) {
+            assertEquals(503, e.getResponse().getStatusCode());
+        }
+        assertEquals(2, statusRequests.get());
+    }
+
+    @Test
+    public void postDoesNotRetryClientErrors() {
+        client.setRetryPolicy(2, 10);
+        try {
+            client.post("127.0.0.1", "/status/404/5");
+            fail("Rejected POST succeeded");
+        } catch (WebbException ignore) { }
+        assertEquals(1, statusRequests.get());
+        assertFalse(client.getReachability().isUnreachable("127.0.0.1"));
+    }
+
+    @Test
+    public void pingRecordsRoundTrip() {
+        client.ping("127.0.0.1", 1000);
+        assertTrue(client.getReachability().getHealth("127.0.0.1").getRtt() >= 0);
+        assertFalse(client.getReachability().isUnreachable("127.0.0.1"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for a subnet of ECP hosts. Requests are made to /&lt;ip&gt;/query/device-info and only the configured
+ * Roku ips answer. Every other host waits for the miss delay and fails, mimicking a connect timeout.
+ */
+class FakeEcpServer {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Set<String> rokuIps;
+    private final long hitDelay;
+    private final long missDelay;
+
+    FakeEcpServer(Set<String> rokuIps, long hitDelay, long missDelay) throws IOException {
+        this.rokuIps = Collections.unmodifiableSet(new HashSet<>(rokuIps));
+        this.hitDelay = hitDelay;
+        this.missDelay = missDelay;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.start();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        String ip = path.length > 1 ? path[1] : "";
+        boolean roku = rokuIps.contains(ip);
+        sleep(roku ? hitDelay : missDelay);
+        if (!roku) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = String.format("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<device-info>\n" +
+                "<vendor-name>Roku</vendor-name>\n<user-device-name>Roku %s</user-device-name>\n</device-info>", ip)
+                .getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Base url that a host path is appended to
+     * @return url
+     */
+    String getBaseUrl() {
+        return String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,272 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for a network of Rokus. Devices live on loopback addresses 127.0.x.y scattered over one /24 per 254
+ * devices and share a single ECP port, so an {@link EcpClient} created with {@link #getPort()} talks to them like real
+ * devices. Hosts of those subnets that are not part of the fleet answer 404. M-SEARCH requests sent to
+ * {@link #getSsdpAddress()} are answered once per device after a random delay within the MX window.
+ * <p>
+ * Every response waits for the configured latency. A lost request waits for the loss delay and then drops the
+ * connection, a lost SSDP reply is never sent, and a failed request answers 503.
+ */
+class FakeRokuFleet {
+    static final String APP_ID = "206723";
+    private static final int HOSTS_PER_SUBNET = 254;
+    private static final int SSDP_REPLY_WINDOW = 200;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HOME = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<active-app>\n" +
+            "\t<app>Roku</app>\n</active-app>";
+    private final List<String> ips;
+    private final List<String> subnetIps;
+    private final Set<String> fleet;
+    private final Map<String, String> activeApps = new ConcurrentHashMap<>();
+    private final AtomicInteger launches = new AtomicInteger(0);
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final Random random;
+    private final long latency;
+    private final long lossDelay;
+    private final double lossRate;
+    private final double failureRate;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final DatagramSocket ssdpSocket;
+    private final ScheduledExecutorService ssdpExecutor;
+
+    /**
+     * @param size number of devices
+     * @param latency delay before each response in milliseconds
+     * @param lossDelay time a lost request hangs before its connection is dropped in milliseconds
+     * @param lossRate share of requests and SSDP replies that are lost from 0 to 1
+     * @param failureRate share of requests that answer 503 from 0 to 1
+     * @param seed random seed for device placement, loss and failures
+     * @throws IOException if the servers cannot be bound
+     */
+    FakeRokuFleet(int size, long latency, long lossDelay, double lossRate, double failureRate, long seed)
+            throws IOException {
+        this.latency = latency;
+        this.lossDelay = lossDelay;
+        this.lossRate = lossRate;
+        this.failureRate = failureRate;
+        random = new Random(seed);
+        int subnets = Math.max(1, (size + HOSTS_PER_SUBNET - 1) / HOSTS_PER_SUBNET);
+        List<String> hosts = new ArrayList<>();
+        for (int subnet = 1; subnet <= subnets; subnet++)
+            for (int host = 1; host <= HOSTS_PER_SUBNET; host++)
+                hosts.add(String.format(Locale.US, "127.0.%d.%d", subnet, host));
+        subnetIps = Collections.unmodifiableList(new ArrayList<>(hosts));
+        Collections.shuffle(hosts, random);
+        ips = Collections.unmodifiableList(new ArrayList<>(hosts.subList(0, size)));
+        fleet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        fleet.addAll(ips);
+        // Bind every loopback address so each 127.0.x.y stands in for a separate Roku
+        server = HttpServer.create(new InetSocketAddress(0), 1024);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.start();
+        ssdpSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        ssdpExecutor = Executors.newScheduledThreadPool(2);
+        Thread ssdpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listenSsdp();
+            }
+        });
+        ssdpThread.setName("Fake SSDP");
+        ssdpThread.setDaemon(true);
+        ssdpThread.start();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String ip = exchange.getLocalAddress().getAddress().getHostAddress();
+        String path = exchange.getRequestURI().getPath();
+        double roll = random.nextDouble();
+        if (roll < lossRate) {
+            sleep(lossDelay);
+            exchange.close();
+            return;
+        }
+        sleep(latency);
+        if (!fleet.contains(ip)) {
+            respond(exchange, 404, null);
+            return;
+        }
+        if (roll < lossRate + failureRate) {
+            respond(exchange, 503, null);
+            return;
+        }
+        if (path.equals("/"))
+            respond(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<root/>");
+        else if (path.equals("/query/device-info"))
+            respond(exchange, 200, createDeviceInfo(ip));
+        else if (path.equals("/query/apps"))
+            respond(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<apps>\n" +
+                    "\t<app id=\"12\" type=\"appl\" version=\"4.2.1\">Netflix</app>\n" +
+                    "\t<app id=\"" + APP_ID + "\" type=\"appl\" version=\"2.3.0\">Twitched</app>\n</apps>");
+        else if (path.equals("/query/active-app"))
+            respond(exchange, 200, activeApps.containsKey(ip) ? activeApps.get(ip) : HOME);
+        else if (path.startsWith("/launch/") && exchange.getRequestMethod().equals("POST")) {
+            String appId = path.substring("/launch/".length());
+            launches.incrementAndGet();
+            activeApps.put(ip, "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<active-app>\n\t<app id=\"" + appId +
+                    "\" type=\"appl\" version=\"2.3.0\">Twitched</app>\n</active-app>");
+            respond(exchange, 200, null);
+        }
+        else
+            respond(exchange, 404, null);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static String createDeviceInfo(String ip) {
+        return String.format(Locale.US, "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<device-info>\n" +
+                "\t<udn>29600009-5406-1005-8080-%012d</udn>\n\t<serial-number>%s</serial-number>\n" +
+                "\t<vendor-name>Roku</vendor-name>\n\t<model-name>Roku Express</model-name>\n" +
+                "\t<user-device-name>Roku %s</user-device-name>\n</device-info>", ip.hashCode() & 0xffffffffL,
+                getSerial(ip), ip);
+    }
+
+    /**
+     * @param ip device ip
+     * @return serial number the device reports
+     */
+    static String getSerial(String ip) {
+        return "FAKE" + ip.replace('.', '-');
+    }
+
+    /**
+     * Answer searches until the socket is closed
+     */
+    private void listenSsdp() {
+        byte[] buffer = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        try {
+            while (!ssdpSocket.isClosed()) {
+                packet.setLength(buffer.length);
+                ssdpSocket.receive(packet);
+                String message = new String(packet.getData(), packet.getOffset(), packet.getLength(), UTF_8);
+                if (!message.startsWith("M-SEARCH") || !message.contains(SsdpDiscovery.SEARCH_TARGET))
+                    continue;
+                SocketAddress sender = packet.getSocketAddress();
+                for (String ip : ips) {
+                    if (random.nextDouble() < lossRate)
+                        continue;
+                    scheduleReply(ip, sender, latency + random.nextInt(SSDP_REPLY_WINDOW));
+                }
+            }
+        }
+        catch (IOException ignore) {
+            // Closed by stop
+        }
+    }
+
+    private void scheduleReply(final String ip, final SocketAddress sender, long delay) {
+        ssdpExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                byte[] reply = String.format(Locale.US, "HTTP/1.1 200 OK\r\nCache-Control: max-age=3600\r\n" +
+                        "ST: %s\r\nLOCATION: http://%s:%d/\r\nUSN: %s%s\r\n\r\n", SsdpDiscovery.SEARCH_TARGET, ip,
+                        EcpClient.DEFAULT_PORT, SsdpDiscovery.USN_PREFIX, getSerial(ip)).getBytes(UTF_8);
+                try {
+                    ssdpSocket.send(new DatagramPacket(reply, reply.length, sender));
+                } catch (IOException ignore) {
+                    // Replies are best effort like real SSDP
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return device ips in random order
+     */
+    List<String> getIps() {
+        return ips;
+    }
+
+    /**
+     * @return every host of the subnets the devices live in, as a sweep would probe them
+     */
+    List<String> getSubnetIps() {
+        return subnetIps;
+    }
+
+    /**
+     * @return port every device serves ECP on
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return address M-SEARCH requests should be sent to
+     */
+    InetSocketAddress getSsdpAddress() {
+        return new InetSocketAddress(ssdpSocket.getLocalAddress(), ssdpSocket.getLocalPort());
+    }
+
+    int getLaunchCount() {
+        return launches.get();
+    }
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    void stop() {
+        ssdpSocket.close();
+        ssdpExecutor.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,205 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.rolandoislas.twitched.android.task.CoalescingQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.rolandoislas.twitched.android.twitch.CastTarget;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs discovery and casting against simulated fleets of Rokus and reports time to first device, time to find every
+ * device and cast latency. Lossless fleets must be found and cast to completely, lossy fleets are only reported.
+ */
+public class FleetBenchmarkTest {
+    private static final int[] FLEET_SIZES = {1, 10, 100, 500};
+    private static final long LATENCY = 20;
+    private static final long LOSS_DELAY = 250;
+    private static final long SEARCH_TIMEOUT = 1500;
+    private static final int SWEEP_CONCURRENCY = 32;
+    private static final int SWEEP_TIMEOUT = 1000;
+    private static final int CAST_SAMPLES = 10;
+    private static final int CAST_THREADS = 16;
+    private static final CastTarget STREAM = new CastTarget(CastTarget.Type.STREAM, "test", 0);
+    private static final String QUERY = RokuCaster.createLaunchQuery(STREAM);
+
+    @Test
+    public void benchmarkLosslessFleets() throws Exception {
+        for (int size : FLEET_SIZES) {
+            FleetResult result = run(size, 0, 0);
+            assertEquals(size, result.ssdpFound);
+            assertEquals(size, result.sweepFound);
+            assertEquals(size, result.groupCastSucceeded);
+            assertEquals(Math.min(size, CAST_SAMPLES), result.castsConfirmed);
+        }
+    }
+
+    @Test
+    public void benchmarkLossyFleets() throws Exception {
+        for (int size : FLEET_SIZES) {
+            FleetResult result = run(size, 0.05, 0.05);
+            assertTrue(result.ssdpFound <= size);
+            assertTrue(result.sweepFound <= size);
+        }
+    }
+
+    /**
+     * Discover and cast to one fleet
+     * @param size number of devices
+     * @param lossRate share of lost requests and SSDP replies
+     * @param failureRate share of requests that fail
+     * @return measurements
+     */
+    private static FleetResult run(int size, double lossRate, double failureRate)
+            throws Exception {
+        FakeRokuFleet fleet = new FakeRokuFleet(size, LATENCY, LOSS_DELAY, lossRate, failureRate, size);
+        FleetResult result = new FleetResult();
+        try {
+            EcpClient client = new EcpClient(fleet.getPort());
+            client.setRetryPolicy(0, 0);
+            search(fleet, result);
+            sweep(fleet, client, result);
+            cast(fleet, client, result);
+        }
+        finally {
+            fleet.stop();
+        }
+        System.out.println(String.format(Locale.US, "Fleet %3d, loss %2.0f%%, failures %2.0f%%: " +
+                        "SSDP %3d found, first %4d ms, all %4d ms | " +
+                        "sweep %3d found, first %4d ms, full %5d ms | " +
+                        "cast median %3d ms, to app %3d ms, group %5d ms",
+                size, lossRate * 100, failureRate * 100,
+                result.ssdpFound, result.ssdpFirstMillis, result.ssdpAllMillis,
+                result.sweepFound, result.sweepFirstMillis, result.sweepFullMillis,
+                result.castMedianMillis, result.timeToAppMedianMillis, result.groupCastMillis));
+        return result;
+    }
+
+    private static void search(FakeRokuFleet fleet, final FleetResult result) throws IOException {
+        final long start = System.nanoTime();
+        final AtomicLong first = new AtomicLong(-1);
+        final AtomicLong last = new AtomicLong(-1);
+        final Set<String> found = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        SsdpDiscovery discovery = new SsdpDiscovery(new SsdpDiscovery.Listener() {
+            @Override
+            public void onDeviceAlive(String usn, String ip, int maxAge) {
+                long elapsed = elapsedMillis(start);
+                first.compareAndSet(-1, elapsed);
+                if (found.add(ip))
+                    last.set(elapsed);
+            }
+
+            @Override
+            public void onDeviceByeBye(String usn) {
+            }
+        }, fleet.getSsdpAddress());
+        discovery.search(SEARCH_TIMEOUT);
+        result.ssdpFound = found.size();
+        result.ssdpFirstMillis = first.get();
+        result.ssdpAllMillis = last.get();
+    }
+
+    private static void sweep(FakeRokuFleet fleet, final EcpClient client, final FleetResult result)
+            throws InterruptedException {
+        final long start = System.nanoTime();
+        final AtomicLong first = new AtomicLong(-1);
+        final AtomicInteger found = new AtomicInteger(0);
+        final CountDownLatch finished = new CountDownLatch(1);
+        IpSweeper sweeper = new IpSweeper(SWEEP_CONCURRENCY, new IpSweeper.Probe() {
+            @Override
+            public boolean probe(String ip) {
+                return client.queryDevice(ip, SWEEP_TIMEOUT) != null;
+            }
+        }, new IpSweeper.Listener() {
+            @Override
+            public void onHostFound(String ip) {
+                first.compareAndSet(-1, elapsedMillis(start));
+                found.incrementAndGet();
+            }
+
+            @Override
+            public void onSweepFinished(int probed, int found, boolean cancelled) {
+                result.sweepFullMillis = elapsedMillis(start);
+                finished.countDown();
+            }
+        });
+        sweeper.start(fleet.getSubnetIps());
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        result.sweepFound = found.get();
+        result.sweepFirstMillis = first.get();
+    }
+
+    private static void cast(FakeRokuFleet fleet, EcpClient client, FleetResult result) throws Exception {
+        PlaybackConfirmer confirmer = new PlaybackConfirmer(client);
+        List<Long> castLatencies = new ArrayList<>();
+        List<Long> appLatencies = new ArrayList<>();
+        for (String ip : fleet.getIps().subList(0, Math.min(CAST_SAMPLES, fleet.getIps().size()))) {
+            long start = System.nanoTime();
+            LaunchResult launch = client.tryLaunch(ip, FakeRokuFleet.APP_ID, QUERY);
+            if (!launch.isSuccess())
+                continue;
+            castLatencies.add(launch.getLatency());
+            if (confirmer.awaitApp(ip, FakeRokuFleet.APP_ID, SWEEP_TIMEOUT) >= 0) {
+                appLatencies.add(elapsedMillis(start));
+                result.castsConfirmed++;
+            }
+        }
+        result.castMedianMillis = median(castLatencies);
+        result.timeToAppMedianMillis = median(appLatencies);
+        Map<String, String> appIds = new LinkedHashMap<>();
+        for (String ip : fleet.getIps())
+            appIds.put(ip, FakeRokuFleet.APP_ID);
+        RokuCaster caster = new RokuCaster(client, new TaskScheduler("Benchmark", SWEEP_CONCURRENCY, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }), new CoalescingQueue("Benchmark Cast", CAST_THREADS), null);
+        long start = System.nanoTime();
+        for (LaunchResult launch : RokuCaster.await(caster.castToGroup(appIds, STREAM, start))) {
+            if (launch.isSuccess())
+                result.groupCastSucceeded++;
+        }
+        result.groupCastMillis = elapsedMillis(start);
+    }
+
+    private static long median(List<Long> values) {
+        if (values.isEmpty())
+            return -1;
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static class FleetResult {
+        private int ssdpFound;
+        private long ssdpFirstMillis;
+        private long ssdpAllMillis;
+        private int sweepFound;
+        private volatile long sweepFirstMillis;
+        private volatile long sweepFullMillis;
+        private long castMedianMillis;
+        private long timeToAppMedianMillis;
+        private int castsConfirmed;
+        private long groupCastMillis;
+        private int groupCastSucceeded;
+    }
+}
@@ -0,0 +1,167 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sweeps a simulated /24 against a local fake ECP server and reports time to first device and time to full sweep.
+ */
+public class IpSweeperTest {
+    private static final long MISS_DELAY = 10;
+    private static final long HIT_DELAY = 2;
+    private static final Set<String> ROKUS = new HashSet<>(Arrays.asList("192.168.1.40", "192.168.1.200"));
+    private FakeEcpServer server;
+    private List<String> subnet;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeEcpServer(ROKUS, HIT_DELAY, MISS_DELAY);
+        subnet = new ArrayList<>();
+        for (int octet = 1; octet < 255; octet++)
+            subnet.add(String.format(Locale.US, "192.168.1.%d", octet));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void findsAllDevices() throws InterruptedException {
+        SweepResult result = sweep(16);
+        assertEquals(ROKUS, new HashSet<>(result.found));
+        assertEquals(subnet.size(), result.probed);
+    }
+
+    @Test
+    public void parallelSweepIsFasterThanSerial() throws InterruptedException {
+        SweepResult serial = sweep(1);
+        SweepResult parallel = sweep(32);
+        System.out.println(String.format(Locale.US, "Serial: first device %d ms, full sweep %d ms",
+                serial.firstDeviceMillis, serial.fullSweepMillis));
+        System.out.println(String.format(Locale.US, "Parallel: first device %d ms, full sweep %d ms",
+                parallel.firstDeviceMillis, parallel.fullSweepMillis));
+        assertTrue(parallel.firstDeviceMillis < serial.firstDeviceMillis);
+        assertTrue(parallel.fullSweepMillis * 4 < serial.fullSweepMillis);
+    }
+
+    @Test
+    public void cancelStopsProbing() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean wasCancelled = new AtomicBoolean(false);
+        final AtomicLong probedCount = new AtomicLong(0);
+        IpSweeper sweeper = new IpSweeper(4, createProbe(), new IpSweeper.Listener() {
+            @Override
+            public void onHostFound(String ip) {
+            }
+
+            @Override
+            public void onSweepFinished(int probed, int found, boolean cancelled) {
+                wasCancelled.set(cancelled);
+                probedCount.set(probed);
+                finished.countDown();
+            }
+        });
+        sweeper.start(subnet);
+        Thread.sleep(MISS_DELAY * 3);
+        sweeper.cancel();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(wasCancelled.get());
+        assertTrue(probedCount.get() < subnet.size());
+    }
+
+    @Test
+    public void sharedExecutorSweepCanBeAwaited() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<String> found = new CopyOnWriteArrayList<>();
+            IpSweeper sweeper = new IpSweeper(8, executor, createProbe(), new IpSweeper.Listener() {
+                @Override
+                public void onHostFound(String ip) {
+                    found.add(ip);
+                }
+
+                @Override
+                public void onSweepFinished(int probed, int found, boolean cancelled) {
+                }
+            });
+            sweeper.start(subnet);
+            assertTrue(sweeper.awaitCompletion(30, TimeUnit.SECONDS));
+            assertEquals(ROKUS, new HashSet<>(found));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SweepResult sweep(int concurrency) throws InterruptedException {
+        final SweepResult result = new SweepResult();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        IpSweeper sweeper = new IpSweeper(concurrency, createProbe(), new IpSweeper.Listener() {
+            @Override
+            public void onHostFound(String ip) {
+                if (result.found.isEmpty())
+                    result.firstDeviceMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                result.found.add(ip);
+            }
+
+            @Override
+            public void onSweepFinished(int probed, int found, boolean cancelled) {
+                result.fullSweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                result.probed = probed;
+                finished.countDown();
+            }
+        });
+        sweeper.start(subnet);
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private IpSweeper.Probe createProbe() {
+        return new IpSweeper.Probe() {
+            @Override
+            public boolean probe(String ip) {
+                try {
+                    HttpURLConnection connection =
+                            (HttpURLConnection) new URL(server.getBaseUrl() + ip + "/query/device-info").openConnection();
+                    try {
+                        return connection.getResponseCode() == 200;
+                    }
+                    finally {
+                        connection.disconnect();
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    private static class SweepResult {
+        private final List<String> found = new CopyOnWriteArrayList<>();
+        private volatile long firstDeviceMillis;
+        private volatile long fullSweepMillis;
+        private volatile int probed;
+    }
+}
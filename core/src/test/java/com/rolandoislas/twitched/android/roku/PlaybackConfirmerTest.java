@@ -0,0 +1,104 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PlaybackConfirmerTest {
+    private static final String APP_ID = "206723";
+    private static final long APP_START = 400;
+    private static final long PLAYBACK_START = 900;
+    private static final String HOME = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<active-app>\n" +
+            "\t<app>Roku</app>\n</active-app>";
+    private static final String TWITCHED = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<active-app>\n" +
+            "\t<app id=\"206723\" type=\"appl\" version=\"2.3.0\">Twitched</app>\n</active-app>";
+    // Counted here rather than with the global poll metric, which confirmations started by other tests also update
+    private final AtomicInteger polls = new AtomicInteger(0);
+    private HttpServer server;
+    private EcpClient client;
+    private long launched;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/query/active-app", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                polls.incrementAndGet();
+                respond(exchange, elapsed() < APP_START ? HOME : TWITCHED);
+            }
+        });
+        server.createContext("/query/media-player", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                polls.incrementAndGet();
+                String state = elapsed() < APP_START ? "close" : elapsed() < PLAYBACK_START ? "buffer" : "play";
+                respond(exchange, String.format("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+                        "<player error=\"false\" state=\"%s\">\n\t<plugin id=\"206723\" name=\"Twitched\"/>\n" +
+                        "</player>", state));
+            }
+        });
+        server.start();
+        client = new EcpClient(server.getAddress().getPort());
+        launched = System.nanoTime();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private long elapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    @Test
+    public void parsesStates() throws Exception {
+        assertEquals("", PlaybackStateParser.getActiveAppId(HOME));
+        assertEquals(APP_ID, PlaybackStateParser.getActiveAppId(TWITCHED));
+        assertEquals("play", PlaybackStateParser.getPlayerState("<player error=\"false\" state=\"play\"/>"));
+        assertEquals("", PlaybackStateParser.getPlayerState("<player error=\"false\"/>"));
+    }
+
+    @Test
+    public void confirmsAppAndPlayback() {
+        PlaybackConfirmer confirmer = new PlaybackConfirmer(client);
+        long appMillis = confirmer.awaitApp("127.0.0.1", APP_ID, 5000);
+        assertTrue(String.format("App seen after %d ms", appMillis), appMillis >= APP_START);
+        long playbackMillis = confirmer.awaitPlayback("127.0.0.1", 5000);
+        assertTrue(playbackMillis >= 0);
+        assertTrue(elapsed() >= PLAYBACK_START);
+        // Backing off keeps the poll count well below one poll per minimum delay
+        assertTrue(String.format("%d polls", polls.get()), polls.get() < elapsed() / PlaybackConfirmer.MIN_DELAY);
+    }
+
+    @Test
+    public void givesUpAtTheDeadline() {
+        long start = System.nanoTime();
+        assertEquals(-1, new PlaybackConfirmer(client).awaitApp("127.0.0.1", "223126", 700));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.format("Waited %d ms", waited), waited >= 650 && waited < 1500);
+    }
+}
@@ -0,0 +1,61 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PortScannerTest {
+    private static final String OPEN_IP = "127.0.0.1";
+    private static final String CLOSED_IP = "127.0.0.2";
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws IOException {
+        // Only bound to one loopback address, so connects to the other are refused
+        server = new ServerSocket(0, 50, InetAddress.getByName(OPEN_IP));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void findsOnlyOpenHosts() throws IOException {
+        final List<String> reported = new ArrayList<>();
+        List<String> open = new PortScanner(server.getLocalPort(), 1000).scan(Arrays.asList(CLOSED_IP, OPEN_IP),
+                new PortScanner.Listener() {
+            @Override
+            public void onPortOpen(String ip) {
+                reported.add(ip);
+            }
+        });
+        assertEquals(Collections.singletonList(OPEN_IP), open);
+        assertEquals(open, reported);
+    }
+
+    @Test
+    public void scansInBatches() throws IOException {
+        List<String> open = new PortScanner(server.getLocalPort(), 1000, 1).scan(
+                Arrays.asList(CLOSED_IP, OPEN_IP, CLOSED_IP, OPEN_IP), null);
+        assertEquals(Arrays.asList(OPEN_IP, OPEN_IP), open);
+    }
+
+    @Test
+    public void cancelledScanStopsEarly() throws IOException {
+        PortScanner scanner = new PortScanner(server.getLocalPort(), 1000, 1);
+        scanner.cancel();
+        assertTrue(scanner.isCancelled());
+        assertTrue(scanner.scan(Arrays.asList(OPEN_IP, OPEN_IP), null).isEmpty());
+    }
+}
@@ -0,0 +1,62 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReachabilityTrackerTest {
+    private static RokuDevice device(String ip) {
+        return new RokuDevice("serial-" + ip, ip, ip, "Roku", "wifi", "PowerOn", 0, 0);
+    }
+
+    @Test
+    public void weightsRoundTripTimes() {
+        ReachabilityTracker tracker = new ReachabilityTracker();
+        assertNull(tracker.getHealth("10.0.0.2"));
+        tracker.recordSuccess("10.0.0.2", 100);
+        assertEquals(100, tracker.getHealth("10.0.0.2").getRtt());
+        tracker.recordSuccess("10.0.0.2", 20);
+        assertEquals(80, tracker.getHealth("10.0.0.2").getRtt());
+    }
+
+    @Test
+    public void marksRepeatedFailuresUnreachable() {
+        ReachabilityTracker tracker = new ReachabilityTracker();
+        tracker.recordSuccess("10.0.0.2", 10);
+        tracker.recordFailure("10.0.0.2", 1000);
+        assertFalse(tracker.isUnreachable("10.0.0.2", 1000));
+        tracker.recordFailure("10.0.0.2", 2000);
+        assertTrue(tracker.isUnreachable("10.0.0.2", 2000));
+        assertEquals(2, tracker.getHealth("10.0.0.2").getConsecutiveFailures());
+        assertTrue(tracker.getHealth("10.0.0.2").getFailureRate() > 0.4);
+        // The mark expires so a device that came back is tried again
+        assertFalse(tracker.isUnreachable("10.0.0.2", 2000 + ReachabilityTracker.UNREACHABLE_TTL));
+        tracker.recordSuccess("10.0.0.2", 10);
+        assertFalse(tracker.isUnreachable("10.0.0.2", 2000));
+        assertFalse(tracker.isUnreachable("10.0.0.3", 2000));
+    }
+
+    @Test
+    public void sortsByHealth() {
+        ReachabilityTracker tracker = new ReachabilityTracker();
+        RokuDevice slow = device("10.0.0.1");
+        RokuDevice unknown = device("10.0.0.2");
+        RokuDevice fast = device("10.0.0.3");
+        RokuDevice flaky = device("10.0.0.4");
+        RokuDevice dead = device("10.0.0.5");
+        RokuDevice jittery = device("10.0.0.6");
+        tracker.recordSuccess(slow.getIp(), 300);
+        tracker.recordSuccess(fast.getIp(), 30);
+        tracker.recordSuccess(jittery.getIp(), 45);
+        tracker.recordSuccess(flaky.getIp(), 5);
+        tracker.recordFailure(flaky.getIp());
+        tracker.recordFailure(dead.getIp());
+        tracker.recordFailure(dead.getIp());
+        List<RokuDevice> sorted = tracker.sort(Arrays.asList(dead, slow, unknown, jittery, flaky, fast));
+        // Round trip times within the same bucket keep their order
+        assertEquals(Arrays.asList(jittery, fast, slow, flaky, unknown, dead), sorted);
+    }
+}
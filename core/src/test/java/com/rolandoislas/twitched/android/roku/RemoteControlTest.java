@@ -0,0 +1,124 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RemoteControlTest {
+    private static final String IP = "127.0.0.1";
+    private static final long PACING = 50;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private HttpServer server;
+    private RemoteControl remote;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(IP), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String request = exchange.getRequestURI().getRawPath();
+                if (exchange.getRequestURI().getRawQuery() != null)
+                    request += "?" + exchange.getRequestURI().getRawQuery();
+                requests.add(request);
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                // Unread request bodies make the server drop the connection instead of keeping it alive
+                exchange.getRequestBody().close();
+                int status = 200;
+                if (request.endsWith("/Home"))
+                    status = 404;
+                else if (request.endsWith("/Back"))
+                    status = 503;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        EcpClient client = new EcpClient(server.getAddress().getPort());
+        // Launches would be retried, remote commands must not be
+        client.setRetryPolicy(2, 0);
+        remote = new RemoteControl(client, new TaskScheduler("Test", 2, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sequenceIsPacedOverOneConnection() throws Exception {
+        List<RemoteCommand> commands = Arrays.asList(RemoteCommand.keypress("Select"),
+                RemoteCommand.keydown("Fwd"), RemoteCommand.keyup("Fwd"),
+                RemoteCommand.input(Collections.singletonMap("query", "a b")));
+        long start = System.nanoTime();
+        assertEquals(4, (int) RokuCaster.await(remote.send(IP, commands, PACING)));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.format("Sequence took %d ms", elapsed), elapsed >= PACING * 3);
+        assertEquals(Arrays.asList("/keypress/Select", "/keydown/Fwd", "/keyup/Fwd", "/input?query=a%20b"), requests);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void literalTypesEachCharacter() {
+        List<RemoteCommand> commands = RemoteCommand.literal("a/1");
+        assertEquals(3, commands.size());
+        assertEquals("/keypress/Lit_a", commands.get(0).getPath());
+        assertEquals("/keypress/Lit_%2F", commands.get(1).getPath());
+        assertEquals("/keypress/Lit_1", commands.get(2).getPath());
+    }
+
+    @Test
+    public void failedSequenceReleasesHeldKeys() throws Exception {
+        List<RemoteCommand> commands = Arrays.asList(RemoteCommand.keydown("Rev"), RemoteCommand.keypress("Home"),
+                RemoteCommand.keypress("Select"));
+        try {
+            RokuCaster.await(remote.send(IP, commands, 0));
+            fail("Rejected command did not fail the sequence");
+        } catch (WebbException ignore) { }
+        assertEquals(Arrays.asList("/keydown/Rev", "/keypress/Home", "/keyup/Rev"), requests);
+    }
+
+    @Test
+    public void failedCommandsAreNotRetried() throws Exception {
+        try {
+            RokuCaster.await(remote.send(IP, Collections.singletonList(RemoteCommand.keypress("Back")), 0));
+            fail("Server error did not fail the sequence");
+        } catch (WebbException ignore) { }
+        assertEquals(Collections.singletonList("/keypress/Back"), requests);
+    }
+
+    @Test
+    public void pacingIsPerModel() {
+        remote.setPacing("4660X", 200);
+        assertEquals(200, remote.getPacing("4660X"));
+        assertEquals(RemoteControl.DEFAULT_PACING, remote.getPacing("3800X"));
+        assertEquals(RemoteControl.DEFAULT_PACING, remote.getPacing(null));
+    }
+}
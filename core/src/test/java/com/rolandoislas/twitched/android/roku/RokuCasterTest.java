@@ -0,0 +1,107 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.goebl.david.WebbException;
+import com.rolandoislas.twitched.android.task.CoalescingQueue;
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import com.rolandoislas.twitched.android.twitch.CastTarget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RokuCasterTest {
+    private static final CastTarget STREAM = new CastTarget(CastTarget.Type.STREAM, "test", 0);
+    private FakeRokuFleet fleet;
+    private TaskScheduler scheduler;
+    private RokuCaster caster;
+
+    @Before
+    public void setUp() throws IOException {
+        fleet = new FakeRokuFleet(5, 5, 0, 0, 0, 1);
+        scheduler = new TaskScheduler("Test", 8, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        EcpClient client = new EcpClient(fleet.getPort());
+        client.setRetryPolicy(0, 0);
+        caster = new RokuCaster(client, scheduler, new CoalescingQueue("Test Cast", 4), null);
+    }
+
+    @After
+    public void tearDown() {
+        fleet.stop();
+    }
+
+    @Test
+    public void createsLaunchQueries() {
+        assertEquals("contentId=twitch_stream_test&mediaType=live&time=0", RokuCaster.createLaunchQuery(STREAM));
+        assertEquals("contentId=twitch_video_123&mediaType=special&time=90",
+                RokuCaster.createLaunchQuery(new CastTarget(CastTarget.Type.VIDEO, "123", 90)));
+        assertEquals("contentId=twitch_clip_Slug-1&mediaType=special&time=0",
+                RokuCaster.createLaunchQuery(new CastTarget(CastTarget.Type.CLIP, "Slug-1", 0)));
+    }
+
+    @Test
+    public void castIsConfirmed() throws Exception {
+        String ip = fleet.getIps().get(0);
+        CastResult result = RokuCaster.await(caster.cast(ip, "", FakeRokuFleet.APP_ID, STREAM, System.nanoTime()));
+        assertEquals(ip, result.getIp());
+        assertTrue(result.isConfirmed());
+        assertEquals(1, fleet.getLaunchCount());
+    }
+
+    @Test
+    public void castToUnreachableDeviceFailsFast() throws Exception {
+        // Nothing listens on this port, so the device is dead at every ip
+        EcpClient closed = new EcpClient(1);
+        closed.setRetryPolicy(0, 0);
+        RokuDiscovery discovery = new RokuDiscovery(scheduler, closed, new DeviceRegistry(),
+                new RokuDiscovery.Listener() {
+            @Override
+            public void onDeviceFound(RokuDevice device) {
+            }
+
+            @Override
+            public void onDeviceAnswered(RokuDevice device) {
+            }
+        }, fleet.getSsdpAddress());
+        RokuCaster deadCaster = new RokuCaster(closed, scheduler, new CoalescingQueue("Dead Cast", 4), discovery);
+        String ip = "127.0.9.1";
+        for (int failure = 0; failure < ReachabilityTracker.UNREACHABLE_FAILURES; failure++)
+            closed.getReachability().recordFailure(ip);
+        deadCaster.warm(Collections.singletonList(ip));
+        long start = System.nanoTime();
+        try {
+            RokuCaster.await(deadCaster.cast(ip, "YH00DEAD0001", FakeRokuFleet.APP_ID, STREAM, start));
+            fail("Cast to a dead device succeeded");
+        } catch (WebbException ignore) { }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.format("Failing the cast took %d ms", elapsed), elapsed < 200);
+    }
+
+    @Test
+    public void groupCastReportsEveryDevice() throws Exception {
+        Map<String, String> appIds = new LinkedHashMap<>();
+        for (String ip : fleet.getIps())
+            appIds.put(ip, FakeRokuFleet.APP_ID);
+        appIds.put("127.0.9.1", FakeRokuFleet.APP_ID);
+        List<LaunchResult> results = caster.castToGroup(appIds, STREAM, System.nanoTime()).get(10, TimeUnit.SECONDS);
+        assertEquals(appIds.size(), results.size());
+        for (int index = 0; index < fleet.getIps().size(); index++) {
+            assertEquals(fleet.getIps().get(index), results.get(index).getIp());
+            assertTrue(results.get(index).isSuccess());
+        }
+        assertFalse(results.get(results.size() - 1).isSuccess());
+    }
+}
@@ -0,0 +1,123 @@
+package com.rolandoislas.twitched.android.roku;
+
+import com.rolandoislas.twitched.android.task.TaskScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RokuDiscoveryTest {
+    private static final int FLEET_SIZE = 20;
+    private final Set<String> found = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private FakeRokuFleet fleet;
+    private RokuDiscovery discovery;
+
+    @Before
+    public void setUp() throws IOException {
+        fleet = new FakeRokuFleet(FLEET_SIZE, 5, 0, 0, 0, 1);
+        TaskScheduler scheduler = new TaskScheduler("Test", 8, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        discovery = new RokuDiscovery(scheduler, new EcpClient(fleet.getPort()), new DeviceRegistry(),
+                new RokuDiscovery.Listener() {
+            @Override
+            public void onDeviceFound(RokuDevice device) {
+                found.add(device.getIp());
+            }
+
+            @Override
+            public void onDeviceAnswered(RokuDevice device) {
+            }
+        }, fleet.getSsdpAddress());
+    }
+
+    @After
+    public void tearDown() {
+        fleet.stop();
+    }
+
+    @Test
+    public void searchReportsEveryDevice() throws Exception {
+        int count = discovery.search(null).get(10, TimeUnit.SECONDS);
+        assertEquals(FLEET_SIZE, count);
+        assertEquals(new HashSet<>(fleet.getIps()), found);
+        for (String ip : fleet.getIps())
+            assertEquals(FakeRokuFleet.getSerial(ip), discovery.getRegistry().findByIp(ip).getSerial());
+    }
+
+    @Test
+    public void resolvesIpBySerial() throws Exception {
+        discovery.search(null).get(10, TimeUnit.SECONDS);
+        String ip = fleet.getIps().get(0);
+        assertEquals(ip, discovery.resolveIp(FakeRokuFleet.getSerial(ip), "10.0.0.1"));
+        assertEquals("10.0.0.1", discovery.resolveIp("unknown", "10.0.0.1"));
+    }
+
+    @Test
+    public void searchAfterCancelDeliversItsCallback() throws Exception {
+        final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+        TaskScheduler.Callback<Integer> callback = new TaskScheduler.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer count) {
+                results.add(count);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                results.add(-1);
+            }
+        };
+        discovery.search(callback);
+        discovery.cancelSearch();
+        // A relaunch right after cancelling must start a new search rather than join the cancelled one
+        assertFalse(discovery.isSearching());
+        discovery.search(callback);
+        assertTrue(discovery.isSearching());
+        assertEquals(FLEET_SIZE, (int) results.poll(10, TimeUnit.SECONDS));
+        assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void slowRespondersDoNotStallSearch() throws Exception {
+        // Verifying ten slow devices one after another inside the receive loop would outlast the search deadline
+        FakeRokuFleet slowFleet = new FakeRokuFleet(10, 600, 0, 0, 0, 1);
+        try {
+            RokuDiscovery slowDiscovery = new RokuDiscovery(new TaskScheduler("Slow", 16, new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    runnable.run();
+                }
+            }), new EcpClient(slowFleet.getPort()), new DeviceRegistry(),
+                    new RokuDiscovery.Listener() {
+                @Override
+                public void onDeviceFound(RokuDevice device) {
+                }
+
+                @Override
+                public void onDeviceAnswered(RokuDevice device) {
+                }
+            }, slowFleet.getSsdpAddress());
+            long start = System.nanoTime();
+            assertEquals(10, (int) slowDiscovery.search(null).get(10, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(String.format("Search took %d ms", elapsed), elapsed < 6000);
+        }
+        finally {
+            slowFleet.stop();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanPlannerTest {
+
+    @Test
+    public void hostRangesFrom20To30() {
+        long address = ScanPlanner.toLong("172.16.37.200");
+        assertRange("172.16.32.1", "172.16.47.254", ScanPlanner.hostRange(address, 20));
+        assertRange("172.16.36.1", "172.16.39.254", ScanPlanner.hostRange(address, 22));
+        assertRange("172.16.37.1", "172.16.37.254", ScanPlanner.hostRange(address, 24));
+        assertRange("172.16.37.193", "172.16.37.206", ScanPlanner.hostRange(address, 28));
+        assertRange("172.16.37.201", "172.16.37.202", ScanPlanner.hostRange(address, 30));
+        for (int prefixLength = 20; prefixLength <= 30; prefixLength++) {
+            long[] range = ScanPlanner.hostRange(address, prefixLength);
+            assertEquals("/" + prefixLength, (1L << (32 - prefixLength)) - 2, range[1] - range[0] + 1);
+        }
+    }
+
+    @Test
+    public void pointToPointSubnetsUseEveryAddress() {
+        long address = ScanPlanner.toLong("10.1.1.1");
+        assertRange("10.1.1.0", "10.1.1.1", ScanPlanner.hostRange(address, 31));
+        assertRange("10.1.1.1", "10.1.1.1", ScanPlanner.hostRange(address, 32));
+    }
+
+    @Test
+    public void parsesAndFormatsAddresses() {
+        assertEquals(0xC0A80101L, ScanPlanner.toLong("192.168.1.1"));
+        assertEquals("255.255.255.255", ScanPlanner.toIp(ScanPlanner.toLong("255.255.255.255")));
+        assertEquals(-1, ScanPlanner.toLong("192.168.1"));
+        assertEquals(-1, ScanPlanner.toLong("192.168.1.256"));
+        assertEquals(-1, ScanPlanner.toLong("fe80::1"));
+    }
+
+    @Test
+    public void planCoversWholeSubnetWithoutOwnAddress() {
+        ScanPlanner planner = new ScanPlanner(ScanPlanner.DEFAULT_PROBE_BUDGET);
+        planner.addSubnet("192.168.4.10", 22);
+        List<String> plan = planner.plan();
+        assertEquals(1021, plan.size());
+        assertEquals(plan.size(), new HashSet<>(plan).size());
+        assertFalse(plan.contains("192.168.4.10"));
+        assertTrue(plan.contains("192.168.7.254"));
+        assertFalse(plan.contains("192.168.7.255"));
+    }
+
+    @Test
+    public void planSpiralsOutFromOwnAddress() {
+        ScanPlanner planner = new ScanPlanner(6);
+        planner.addSubnet("192.168.1.2", 24);
+        assertEquals(Arrays.asList("192.168.1.3", "192.168.1.1", "192.168.1.4", "192.168.1.5", "192.168.1.6",
+                "192.168.1.7"), planner.plan());
+    }
+
+    @Test
+    public void planPutsNeighborsFirst() throws URISyntaxException {
+        ScanPlanner planner = new ScanPlanner(4);
+        planner.addSubnet("192.168.1.50", 24);
+        for (String ip : ScanPlanner.readArpCache(fixture("net/arp.txt")))
+            planner.addNeighbor(ip);
+        // Incomplete entries and neighbors on other subnets are skipped
+        assertEquals(Arrays.asList("192.168.1.1", "192.168.1.87", "192.168.1.51", "192.168.1.49"), planner.plan());
+    }
+
+    @Test
+    public void planSharesBudgetAcrossSubnets() {
+        ScanPlanner planner = new ScanPlanner(4);
+        planner.addSubnet("192.168.1.50", 24);
+        planner.addSubnet("10.0.0.50", 16);
+        assertEquals(Arrays.asList("192.168.1.51", "10.0.0.51", "192.168.1.49", "10.0.0.49"), planner.plan());
+    }
+
+    @Test
+    public void invalidPrefixFallsBackTo24() {
+        ScanPlanner planner = new ScanPlanner(ScanPlanner.DEFAULT_PROBE_BUDGET);
+        planner.addSubnet("192.168.1.50", 64);
+        assertEquals(253, planner.plan().size());
+    }
+
+    @Test
+    public void missingArpCacheIsEmpty() {
+        assertTrue(ScanPlanner.readArpCache(new File("/nonexistent/arp")).isEmpty());
+    }
+
+    private static void assertRange(String first, String last, long[] range) {
+        assertEquals(first, ScanPlanner.toIp(range[0]));
+        assertEquals(last, ScanPlanner.toIp(range[1]));
+    }
+
+    private static File fixture(String name) throws URISyntaxException {
+        return new File(ScanPlannerTest.class.getClassLoader().getResource(name).toURI());
+    }
+}
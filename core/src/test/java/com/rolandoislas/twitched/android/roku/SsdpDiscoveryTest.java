@@ -0,0 +1,87 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class SsdpDiscoveryTest {
+    private final List<String> alive = new CopyOnWriteArrayList<>();
+    private DatagramSocket responder;
+
+    @Before
+    public void setUp() throws IOException {
+        // Answers every M-SEARCH like a LAN with a router and one Roku on it
+        responder = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        final byte[] router = readFixture("router.txt");
+        final byte[] roku = readFixture("roku-express.txt");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[2048];
+                DatagramPacket search = new DatagramPacket(buffer, buffer.length);
+                try {
+                    while (true) {
+                        search.setLength(buffer.length);
+                        responder.receive(search);
+                        responder.send(new DatagramPacket(router, router.length, search.getSocketAddress()));
+                        responder.send(new DatagramPacket(roku, roku.length, search.getSocketAddress()));
+                    }
+                } catch (IOException ignore) {
+                    // Closed by tearDown
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() {
+        responder.close();
+    }
+
+    @Test
+    public void searchIgnoresOtherTargets() throws IOException {
+        SsdpDiscovery discovery = new SsdpDiscovery(new SsdpDiscovery.Listener() {
+            @Override
+            public void onDeviceAlive(String usn, String ip, int maxAge) {
+                alive.add(ip);
+            }
+
+            @Override
+            public void onDeviceByeBye(String usn) {
+            }
+        }, (InetSocketAddress) responder.getLocalSocketAddress());
+        assertEquals(1, discovery.search(500));
+        assertEquals(Collections.singletonList("192.168.1.134"), alive);
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        InputStream input = SsdpDiscoveryTest.class.getResourceAsStream("/ssdp/" + name);
+        assertNotNull(name, input);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = input.read(chunk)) != -1)
+                output.write(chunk, 0, read);
+            return output.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+}
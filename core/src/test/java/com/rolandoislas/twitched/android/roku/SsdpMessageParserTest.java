@@ -0,0 +1,188 @@
+package com.rolandoislas.twitched.android.roku;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class SsdpMessageParserTest {
+    private static final int BENCHMARK_ITERATIONS = 200000;
+
+    @Test
+    public void parsesRokuResponse() throws IOException {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        byte[] data = readFixture("roku-express.txt");
+        assertTrue(parser.parse(data, 0, data.length));
+        assertEquals("192.168.1.134", parser.getLocationIp());
+        assertEquals(8060, parser.getLocationPort());
+        assertEquals("uuid:roku:ecp:P0A070000007", parser.getUsn());
+        assertEquals("roku:ecp", parser.getSt());
+        assertEquals(3600, parser.getMaxAge());
+    }
+
+    @Test
+    public void headerNamesAreCaseInsensitive() throws IOException {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        byte[] data = readFixture("roku-tv.txt");
+        assertTrue(parser.parse(data, 0, data.length));
+        assertEquals("10.0.0.5", parser.getLocationIp());
+        assertEquals("uuid:roku:ecp:YH00AB123456", parser.getUsn());
+    }
+
+    @Test
+    public void parsesBareNewlinesAndSpacedMaxAge() throws IOException {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        byte[] data = readFixture("router.txt");
+        assertTrue(parser.parse(data, 0, data.length));
+        assertEquals("192.168.0.1", parser.getLocationIp());
+        assertEquals(1900, parser.getLocationPort());
+        assertEquals("upnp:rootdevice", parser.getSt());
+        assertEquals(1800, parser.getMaxAge());
+    }
+
+    @Test
+    public void ignoresStaleBytesPastLength() throws IOException {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        byte[] express = readFixture("roku-express.txt");
+        byte[] tv = readFixture("roku-tv.txt");
+        byte[] buffer = Arrays.copyOf(tv, 2048);
+        System.arraycopy(express, 0, buffer, 0, express.length);
+        // Buffer now holds the shorter express response followed by the tail of the tv response
+        assertTrue(parser.parse(buffer, 0, express.length));
+        assertEquals("192.168.1.134", parser.getLocationIp());
+        assertEquals("uuid:roku:ecp:P0A070000007", parser.getUsn());
+    }
+
+    @Test
+    public void rejectsInvalidResponses() {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        assertFalse(parse(parser, "M-SEARCH * HTTP/1.1\r\nLOCATION: http://192.168.1.2:8060/\r\n\r\n"));
+        assertFalse(parse(parser, "NOTIFY * HTTP/1.1\r\nLOCATION: http://192.168.1.2:8060/\r\n\r\n"));
+        assertFalse(parse(parser, "HTTP/1.1 200 OK\r\nLOCATION: http://roku.local:8060/\r\n\r\n"));
+        assertFalse(parse(parser, "HTTP/1.1 200 OK\r\nLOCATION: http://192.168.1.256:8060/\r\n\r\n"));
+        assertFalse(parse(parser, "HTTP/1.1 200 OK\r\nUSN: uuid:roku:ecp:P0A070000007\r\n\r\n"));
+        assertNull(parser.getLocationIp());
+        assertTrue(parse(parser, "HTTP/1.1 200 OK\r\nLOCATION: http://192.168.1.2:8060/\r\n\r\n"));
+        assertEquals("192.168.1.2", parser.getLocationIp());
+    }
+
+    @Test
+    public void parsesNotifyMessages() throws IOException {
+        SsdpMessageParser parser = new SsdpMessageParser();
+        byte[] alive = readFixture("roku-notify-alive.txt");
+        assertTrue(parser.parse(alive, 0, alive.length));
+        assertEquals(SsdpMessageParser.TYPE_ALIVE, parser.getType());
+        assertEquals("roku:ecp", parser.getNt());
+        assertEquals("192.168.1.134", parser.getLocationIp());
+        assertEquals(3600, parser.getMaxAge());
+        byte[] byebye = readFixture("roku-notify-byebye.txt");
+        assertTrue(parser.parse(byebye, 0, byebye.length));
+        assertEquals(SsdpMessageParser.TYPE_BYEBYE, parser.getType());
+        assertEquals("uuid:roku:ecp:P0A070000007", parser.getUsn());
+        assertNull(parser.getLocationIp());
+    }
+
+    /**
+     * Compare per packet allocations and time against the split/regex parsing this parser replaced
+     */
+    @Test
+    public void allocatesLessThanStringParsing() throws IOException {
+        byte[] fixture = readFixture("roku-express.txt");
+        final int length = fixture.length;
+        final byte[] buffer = Arrays.copyOf(fixture, 2048);
+        final SsdpMessageParser parser = new SsdpMessageParser();
+        Runnable streaming = new Runnable() {
+            @Override
+            public void run() {
+                parser.parse(buffer, 0, length);
+            }
+        };
+        Runnable legacy = new Runnable() {
+            @Override
+            public void run() {
+                legacyParse(buffer);
+            }
+        };
+        // Warm up
+        measure(streaming);
+        measure(legacy);
+        long[] streamingResult = measure(streaming);
+        long[] legacyResult = measure(legacy);
+        System.out.println(String.format(Locale.US, "Streaming: %d ns/packet, %d bytes/packet",
+                streamingResult[0], streamingResult[1]));
+        System.out.println(String.format(Locale.US, "Legacy: %d ns/packet, %d bytes/packet",
+                legacyResult[0], legacyResult[1]));
+        if (streamingResult[1] >= 0 && legacyResult[1] >= 0)
+            assertTrue(streamingResult[1] < legacyResult[1]);
+    }
+
+    /**
+     * Run a parser repeatedly
+     * @return nanoseconds per packet and allocated bytes per packet (-1 if the JVM cannot measure allocations)
+     */
+    private static long[] measure(Runnable parse) {
+        long allocatedStart = allocatedBytes();
+        long start = System.nanoTime();
+        for (int iteration = 0; iteration < BENCHMARK_ITERATIONS; iteration++)
+            parse.run();
+        long elapsed = System.nanoTime() - start;
+        long allocatedEnd = allocatedBytes();
+        long allocated = allocatedStart < 0 ? -1 : (allocatedEnd - allocatedStart) / BENCHMARK_ITERATIONS;
+        return new long[] {elapsed / BENCHMARK_ITERATIONS, allocated};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The parsing previously done in MainActivity.searchSsdp
+     */
+    private static String legacyParse(byte[] data) {
+        String response = new String(data);
+        if (!response.startsWith("HTTP/1.1 200 OK"))
+            return null;
+        String[] locationSplit = response.split("LOCATION:");
+        if (locationSplit.length < 2)
+            return null;
+        String[] newLineSplit = locationSplit[1].split("(?:\\r*)\\n");
+        String location = newLineSplit[0].trim();
+        Pattern ipv4Regex = Pattern.compile("http(?:s?)://((?:\\d{1,3}\\.){3}\\d{3}).*");
+        Matcher matcher = ipv4Regex.matcher(location);
+        if (!matcher.matches())
+            return null;
+        return matcher.group(1);
+    }
+
+    private static boolean parse(SsdpMessageParser parser, String response) {
+        byte[] data = response.getBytes();
+        return parser.parse(data, 0, data.length);
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        InputStream input = SsdpMessageParserTest.class.getResourceAsStream("/ssdp/" + name);
+        assertNotNull(name, input);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = input.read(chunk)) != -1)
+                output.write(chunk, 0, read);
+            return output.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+}
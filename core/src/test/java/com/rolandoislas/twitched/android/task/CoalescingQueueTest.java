@@ -0,0 +1,93 @@
+package com.rolandoislas.twitched.android.task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingQueueTest {
+    private final CoalescingQueue queue = new CoalescingQueue("Test", 4);
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    private Callable<String> task(final String name, final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                ran.add(name);
+                if (release != null)
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void keepsOnlyTheNewestWaitingTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> first = queue.submit("10.0.0.2", task("first", release));
+        List<Future<String>> burst = new ArrayList<>();
+        for (int index = 0; index < 5; index++)
+            burst.add(queue.submit("10.0.0.2", task("burst " + index, null)));
+        assertEquals(1, queue.getPendingCount());
+        release.countDown();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("burst 4", burst.get(4).get(5, TimeUnit.SECONDS));
+        for (int index = 0; index < 4; index++) {
+            try {
+                burst.get(index).get();
+                fail("Replaced task completed");
+            } catch (CancellationException ignore) { }
+        }
+        assertEquals(4, queue.getDroppedCount());
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(2, ran.size());
+    }
+
+    @Test
+    public void runsOneTaskPerKeyAtATime() throws Exception {
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int index = 0; index < 20; index++) {
+            futures.add(queue.submit("10.0.0.2", new Callable<Integer>() {
+                @Override
+                public Integer call() throws InterruptedException {
+                    int running = concurrent.incrementAndGet();
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), running));
+                    Thread.sleep(5);
+                    concurrent.decrementAndGet();
+                    return running;
+                }
+            }));
+            Thread.sleep(2);
+        }
+        futures.get(futures.size() - 1).get(5, TimeUnit.SECONDS);
+        assertEquals(1, maxConcurrent.get());
+    }
+
+    @Test
+    public void runsDifferentKeysInParallel() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        Callable<Boolean> task = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                bothRunning.countDown();
+                return bothRunning.await(5, TimeUnit.SECONDS);
+            }
+        };
+        Future<Boolean> first = queue.submit("10.0.0.2", task);
+        Future<Boolean> second = queue.submit("10.0.0.3", task);
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.getDroppedCount());
+    }
+}
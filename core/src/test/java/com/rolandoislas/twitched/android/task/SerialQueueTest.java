@@ -0,0 +1,66 @@
+package com.rolandoislas.twitched.android.task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SerialQueueTest {
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    private Callable<String> task(final String name, final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                ran.add(name);
+                if (release != null)
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void runsEveryTaskOfAKeyInOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SerialQueue queue = new SerialQueue(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        futures.add(queue.submit("10.0.0.2", task("0", release)));
+        for (int index = 1; index < 5; index++)
+            futures.add(queue.submit("10.0.0.2", task(String.valueOf(index), null)));
+        assertEquals(4, queue.getPendingCount());
+        release.countDown();
+        for (int index = 0; index < 5; index++)
+            assertEquals(String.valueOf(index), futures.get(index).get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4"), ran);
+        assertEquals(0, queue.getPendingCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void waitingTasksDoNotHoldThreads() throws Exception {
+        // Two threads: one busy with the first key, the queued tasks behind it must leave the other free
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SerialQueue queue = new SerialQueue(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> blocked = queue.submit("10.0.0.2", task("blocked", release));
+        for (int index = 0; index < 3; index++)
+            queue.submit("10.0.0.2", task("waiting " + index, null));
+        assertEquals("other", queue.submit("10.0.0.3", task("other", null)).get(5, TimeUnit.SECONDS));
+        assertFalse(blocked.isDone());
+        release.countDown();
+        assertEquals("blocked", blocked.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
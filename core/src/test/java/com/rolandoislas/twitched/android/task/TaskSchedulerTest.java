@@ -0,0 +1,165 @@
+package com.rolandoislas.twitched.android.task;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskSchedulerTest {
+    private final BlockingQueue<String> callbacks = new LinkedBlockingQueue<>();
+    private final AtomicInteger callbackThreadPosts = new AtomicInteger(0);
+    private final TaskScheduler scheduler = new TaskScheduler("Test", 4, new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            callbackThreadPosts.incrementAndGet();
+            runnable.run();
+        }
+    });
+
+    @Test
+    public void deliversResultsOnCallbackExecutor() throws Exception {
+        scheduler.submit(this, null, new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }, recordingCallback());
+        assertEquals("success done", callbacks.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, callbackThreadPosts.get());
+    }
+
+    @Test
+    public void deliversFailures() throws Exception {
+        scheduler.submit(this, null, new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("broken");
+            }
+        }, recordingCallback());
+        assertEquals("failure broken", callbacks.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deduplicatesInFlightTasksByKey() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger(0);
+        Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                runs.incrementAndGet();
+                release.await();
+                return "search";
+            }
+        };
+        Future<String> first = scheduler.submit(this, "search", task, recordingCallback());
+        for (int tap = 0; tap < 20; tap++)
+            assertSame(first, scheduler.submit(this, "search", task, recordingCallback()));
+        assertTrue(scheduler.isRunning("search"));
+        assertEquals(1, scheduler.getTaskCount());
+        release.countDown();
+        assertEquals("success search", callbacks.poll(1, TimeUnit.SECONDS));
+        assertNull(callbacks.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, runs.get());
+        assertFalse(scheduler.isRunning("search"));
+    }
+
+    @Test
+    public void cancelAllInterruptsOwnedTasksWithoutCallbacks() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Object owner = new Object();
+        scheduler.submit(owner, null, new Callable<String>() {
+            @Override
+            public String call() {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "late";
+            }
+        }, recordingCallback());
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        scheduler.cancelAll(owner);
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertNull(callbacks.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, scheduler.getTaskCount());
+    }
+
+    @Test
+    public void cancelledTaskKeepsItsKeyUntilItReturns() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                started.countDown();
+                // Stands in for socket I/O that ignores the interrupt
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException ignore) { }
+                }
+                running.decrementAndGet();
+                return "search";
+            }
+        };
+        scheduler.submit(this, "search", task, recordingCallback());
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        scheduler.cancel("search");
+        // The cancelled task still holds the key but will never deliver a result
+        assertFalse(scheduler.isRunning("search"));
+        assertEquals(1, scheduler.getTaskCount());
+        Future<String> next = scheduler.submit(this, "search", task, recordingCallback());
+        assertTrue(scheduler.isRunning("search"));
+        assertFalse(next.isDone());
+        release.countDown();
+        assertEquals("search", next.get(1, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        assertEquals("success search", callbacks.poll(1, TimeUnit.SECONDS));
+        assertNull(callbacks.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancelAllLeavesOtherOwnersRunning() throws Exception {
+        Object owner = new Object();
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(new Object(), null, new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                release.await();
+                return "other";
+            }
+        }, recordingCallback());
+        scheduler.cancelAll(owner);
+        release.countDown();
+        assertEquals("success other", callbacks.poll(1, TimeUnit.SECONDS));
+    }
+
+    private TaskScheduler.Callback<String> recordingCallback() {
+        return new TaskScheduler.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                callbacks.add("success " + result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                callbacks.add("failure " + error.getMessage());
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package com.rolandoislas.twitched.android.twitch;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TwitchUrlResolverTest {
+    // Patterns CastActivity matched shared text against before the resolver
+    private static final Pattern LEGACY_CHANNEL_URL = Pattern.compile(".*https?://.*twitch.tv/([^?#&]+).*");
+    private static final Pattern LEGACY_VIDEO_URL =
+            Pattern.compile(".*https?://.*twitch.tv/(?:[^?#&/]+)/v/([^?#&]+)(?:.*t=(\\d+))?.*");
+
+    @Test
+    public void resolvesFixtures() throws IOException {
+        List<String[]> fixtures = readFixtures();
+        assertFalse(fixtures.isEmpty());
+        for (String[] fixture : fixtures) {
+            CastTarget target = TwitchUrlResolver.resolve(fixture[1]);
+            assertEquals(fixture[1], fixture[0], target == null ? "NONE" : target.toString());
+        }
+    }
+
+    @Test
+    public void parsesOffsets() {
+        assertEquals(3723, TwitchUrlResolver.parseOffset("1h2m3s"));
+        assertEquals(3723, TwitchUrlResolver.parseOffset("01h02m03s"));
+        assertEquals(7200, TwitchUrlResolver.parseOffset("2h"));
+        assertEquals(90, TwitchUrlResolver.parseOffset("1m30s"));
+        assertEquals(95, TwitchUrlResolver.parseOffset("95"));
+        assertEquals(0, TwitchUrlResolver.parseOffset("h"));
+        assertEquals(0, TwitchUrlResolver.parseOffset("1x"));
+        assertEquals(0, TwitchUrlResolver.parseOffset(null));
+    }
+
+    @Test
+    public void ignoresNull() {
+        assertNull(TwitchUrlResolver.resolve(null));
+    }
+
+    @Test
+    public void benchmarkAgainstLegacyPatterns() throws IOException {
+        List<String> samples = createSamples(5000);
+        // Warm up both paths
+        resolveAll(samples);
+        matchLegacy(samples);
+        long start = System.nanoTime();
+        int resolved = resolveAll(samples);
+        long resolverNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        matchLegacy(samples);
+        long legacyNanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.US,
+                "Resolver: %d of %d shares resolved in %d ms (%.0f shares/s), legacy patterns: %d ms",
+                resolved, samples.size(), TimeUnit.NANOSECONDS.toMillis(resolverNanos),
+                samples.size() * 1e9 / resolverNanos, TimeUnit.NANOSECONDS.toMillis(legacyNanos)));
+        assertTrue(resolverNanos < legacyNanos);
+    }
+
+    private static int resolveAll(List<String> samples) {
+        int resolved = 0;
+        for (String sample : samples) {
+            if (TwitchUrlResolver.resolve(sample) != null)
+                resolved++;
+        }
+        return resolved;
+    }
+
+    private static int matchLegacy(List<String> samples) {
+        int matched = 0;
+        for (String sample : samples) {
+            if (LEGACY_VIDEO_URL.matcher(sample).matches() || LEGACY_CHANNEL_URL.matcher(sample).matches())
+                matched++;
+        }
+        return matched;
+    }
+
+    /**
+     * Wrap fixture links in filler text of varying length, like the text apps add when sharing
+     * @param count number of samples
+     * @return share texts
+     */
+    private static List<String> createSamples(int count) throws IOException {
+        List<String[]> fixtures = readFixtures();
+        Random random = new Random(42);
+        StringBuilder filler = new StringBuilder();
+        for (int word = 0; word < 200; word++)
+            filler.append("watch this amazing play ");
+        List<String> samples = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            String link = fixtures.get(random.nextInt(fixtures.size()))[1];
+            int before = random.nextInt(filler.length() / 4);
+            int after = random.nextInt(filler.length() / 4);
+            samples.add(filler.substring(0, before) + " " + link + " " + filler.substring(0, after));
+        }
+        return samples;
+    }
+
+    /**
+     * Read the share text fixtures
+     * @return expected target and shared text pairs
+     */
+    private static List<String[]> readFixtures() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                TwitchUrlResolverTest.class.getClassLoader().getResourceAsStream("twitch/share-texts.txt"), "UTF-8"));
+        List<String[]> fixtures = new ArrayList<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.startsWith("#") || tab < 0)
+                    continue;
+                fixtures.add(new String[] {line.substring(0, tab), line.substring(tab + 1)});
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return fixtures;
+    }
+}